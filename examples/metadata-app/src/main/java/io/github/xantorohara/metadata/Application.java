@@ -1,22 +1,39 @@
 package io.github.xantorohara.metadata;
 
+import io.github.xantorohara.metalock.LockListener;
 import io.github.xantorohara.metalock.MetaLockAspect;
 import io.github.xantorohara.metalock.NameLockAspect;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 
+import java.util.Collections;
+import java.util.List;
+
 @SpringBootApplication
 public class Application {
 
+    /**
+     * Custom lock listeners, aspects log via SLF4J if there are no listeners.
+     */
+    @Autowired(required = false)
+    List<LockListener> lockListeners = Collections.emptyList();
+
     @Bean
     public MetaLockAspect getMetaLockAspect() {
-        return new MetaLockAspect();
+        if (lockListeners.isEmpty()) {
+            return new MetaLockAspect();
+        }
+        return new MetaLockAspect(lockListeners.toArray(new LockListener[lockListeners.size()]));
     }
 
     @Bean
     public NameLockAspect getNamedLockAspect() {
-        return new NameLockAspect();
+        if (lockListeners.isEmpty()) {
+            return new NameLockAspect();
+        }
+        return new NameLockAspect(lockListeners.toArray(new LockListener[lockListeners.size()]));
     }
 
     public static void main(String[] args) {
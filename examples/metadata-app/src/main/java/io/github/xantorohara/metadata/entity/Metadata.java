@@ -21,6 +21,9 @@ public class Metadata {
     @Column(nullable = false)
     String value;
 
+    @Version
+    Long version;
+
     public Metadata() {
     }
 
@@ -53,6 +56,10 @@ public class Metadata {
         this.value = value;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
     @Override
     public String toString() {
         return "Metadata{" +
@@ -2,9 +2,20 @@ package io.github.xantorohara.metadata.repository;
 
 import io.github.xantorohara.metadata.entity.Metadata;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import javax.persistence.LockModeType;
 import java.util.UUID;
 
 public interface MetadataRepository extends JpaRepository<Metadata, UUID> {
     public Metadata findByKey(String key);
+
+    /**
+     * SELECT ... FOR UPDATE, the row stays locked until the end of the transaction
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select m from Metadata m where m.key = :key")
+    public Metadata findByKeyForUpdate(@Param("key") String key);
 }
@@ -7,18 +7,27 @@ import io.github.xantorohara.metalock.NameLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Service
 public class MetadataService {
     protected final Logger log = LoggerFactory.getLogger(getClass());
 
+    private static final int OPTIMISTIC_ATTEMPTS = 10;
+
     @Autowired
     MetadataRepository metadataRepository;
 
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
     @MetaLock(name = "Metadata", param = "key")
     @Transactional(propagation = Propagation.REQUIRES_NEW)
     public Metadata createMetadata(String key, String val) {
@@ -64,6 +73,76 @@ public class MetadataService {
         return metadata;
     }
 
+    /**
+     * Create or update Metadata without any extra work, it is used by the load generator.
+     */
+    @MetaLock(name = "Metadata", param = "key")
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public Metadata saveMetadata(String key, String val) {
+        return save(key, val);
+    }
+
+    /**
+     * The same as saveMetadata, but locks the whole table.
+     */
+    @NameLock("table_metadata")
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public Metadata saveMetadataUsingTableLocking(String key, String val) {
+        return save(key, val);
+    }
+
+    /**
+     * The same as saveMetadata, but without MetaLock: the existing row is locked by the database
+     * (SELECT ... FOR UPDATE) until the end of the transaction.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public Metadata saveMetadataForUpdate(String key, String val) {
+        Metadata metadata = metadataRepository.findByKeyForUpdate(key);
+
+        if (metadata == null) {
+            metadata = new Metadata(key, val);
+        } else {
+            metadata.setValue(val);
+        }
+        return metadataRepository.saveAndFlush(metadata);
+    }
+
+    /**
+     * The same as saveMetadata, but without any locks: concurrent updates are detected by the @Version
+     * of the Metadata, the transaction is retried on conflicts.
+     */
+    public Metadata saveMetadataOptimistic(String key, String val) {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transaction.execute(status -> save(key, val));
+            } catch (OptimisticLockingFailureException e) {
+                if (attempt >= OPTIMISTIC_ATTEMPTS) {
+                    throw e;
+                }
+                log.debug("Retry Metadata {} after the conflict", key);
+            }
+        }
+    }
+
+    @Transactional(readOnly = true)
+    public Metadata findMetadata(String key) {
+        return metadataRepository.findByKey(key);
+    }
+
+    private Metadata save(String key, String val) {
+        Metadata metadata = metadataRepository.findByKey(key);
+
+        if (metadata == null) {
+            metadata = new Metadata(key, val);
+        } else {
+            metadata.setValue(val);
+        }
+        return metadataRepository.saveAndFlush(metadata);
+    }
+
     /**
      * For some reason we need to prevent concurrent insertion of Metadata object for the same user.
      * Also value from the "metadataKey" parameter is unique constraint
@@ -0,0 +1,62 @@
+package io.github.xantorohara.metadata.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+
+/**
+ * Wraps the DataSource and records how long connections are held: from getConnection() to close().
+ * Connections obtained before the measurement start are ignored.
+ */
+public class ConnectionHoldRecorder implements BeanPostProcessor {
+    private final Histogram holdTime = new ConcurrentHistogram(3);
+    private volatile long measureFrom = Long.MAX_VALUE;
+
+    public void measureFrom(long nanoTime) {
+        holdTime.reset();
+        measureFrom = nanoTime;
+    }
+
+    public Histogram getHoldTime() {
+        return holdTime.copy();
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource) {
+            return new DelegatingDataSource((DataSource) bean) {
+                @Override
+                public Connection getConnection() throws java.sql.SQLException {
+                    return wrap(super.getConnection());
+                }
+            };
+        }
+        return bean;
+    }
+
+    private Connection wrap(Connection connection) {
+        long obtained = System.nanoTime();
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if ("close".equals(method.getName()) && obtained >= measureFrom) {
+                        holdTime.recordValue(System.nanoTime() - obtained);
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+}
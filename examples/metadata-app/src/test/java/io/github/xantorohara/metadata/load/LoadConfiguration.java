@@ -0,0 +1,20 @@
+package io.github.xantorohara.metadata.load;
+
+import org.springframework.context.annotation.Bean;
+
+/**
+ * Additional beans for the load test. Not annotated with @Configuration,
+ * so the component scan of the Application doesn't pick it up for other tests.
+ */
+public class LoadConfiguration {
+
+    @Bean
+    public static ConnectionHoldRecorder getConnectionHoldRecorder() {
+        return new ConnectionHoldRecorder();
+    }
+
+    @Bean
+    public LockWaitRecorder getLockWaitRecorder() {
+        return new LockWaitRecorder();
+    }
+}
@@ -0,0 +1,128 @@
+package io.github.xantorohara.metadata.load;
+
+import io.github.xantorohara.metadata.service.MetadataService;
+import org.HdrHistogram.Histogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives MetadataService with a number of threads.
+ * Each thread picks keys with the Zipf distribution and reads or writes them according to the write ratio.
+ * All keys are created before the load, so writes are always updates.
+ * Operations started during the warmup are not measured.
+ */
+public class LoadGenerator {
+    private final LoadSettings settings;
+    private final MetadataService metadataService;
+    private final LockWaitRecorder lockWaitRecorder;
+    private final ConnectionHoldRecorder connectionHoldRecorder;
+
+    public LoadGenerator(LoadSettings settings, MetadataService metadataService,
+                         LockWaitRecorder lockWaitRecorder, ConnectionHoldRecorder connectionHoldRecorder) {
+        this.settings = settings;
+        this.metadataService = metadataService;
+        this.lockWaitRecorder = lockWaitRecorder;
+        this.connectionHoldRecorder = connectionHoldRecorder;
+    }
+
+    public LoadReport run() throws InterruptedException {
+        for (int key = 0; key < settings.keys; key++) {
+            metadataService.saveMetadata("Key" + key, "Initial");
+        }
+
+        ZipfGenerator zipf = new ZipfGenerator(settings.keys, settings.skew);
+        long measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(settings.warmupSeconds);
+        long measureTo = measureFrom + TimeUnit.SECONDS.toNanos(settings.seconds);
+        lockWaitRecorder.measureFrom(measureFrom);
+        connectionHoldRecorder.measureFrom(measureFrom);
+
+        List<Worker> workers = new ArrayList<>(settings.threads);
+        for (int i = 0; i < settings.threads; i++) {
+            Worker worker = new Worker(zipf, measureFrom, measureTo);
+            worker.setName("load-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+
+        Histogram latency = new Histogram(3);
+        long reads = 0;
+        long writes = 0;
+        long errors = 0;
+        for (Worker worker : workers) {
+            worker.join();
+            latency.add(worker.latency);
+            reads += worker.reads;
+            writes += worker.writes;
+            errors += worker.errors;
+        }
+        return new LoadReport(settings, latency, reads, writes, errors, measureTo - measureFrom,
+                lockWaitRecorder.getWaitNanos(), connectionHoldRecorder.getHoldTime());
+    }
+
+    private class Worker extends Thread {
+        private final ZipfGenerator zipf;
+        private final long measureFrom;
+        private final long measureTo;
+
+        private final Histogram latency = new Histogram(3);
+        private long reads;
+        private long writes;
+        private long errors;
+
+        Worker(ZipfGenerator zipf, long measureFrom, long measureTo) {
+            this.zipf = zipf;
+            this.measureFrom = measureFrom;
+            this.measureTo = measureTo;
+        }
+
+        @Override
+        public void run() {
+            Random random = ThreadLocalRandom.current();
+            long started;
+            while ((started = System.nanoTime()) < measureTo) {
+                String key = "Key" + zipf.next(random);
+                boolean write = random.nextDouble() < settings.writeRatio;
+                boolean failed = false;
+                try {
+                    if (write) {
+                        write(key);
+                    } else {
+                        metadataService.findMetadata(key);
+                    }
+                } catch (RuntimeException e) {
+                    failed = true;
+                }
+                if (started >= measureFrom) {
+                    latency.recordValue(System.nanoTime() - started);
+                    if (failed) {
+                        errors++;
+                    } else if (write) {
+                        writes++;
+                    } else {
+                        reads++;
+                    }
+                }
+            }
+        }
+
+        private void write(String key) {
+            switch (settings.mode) {
+                case NAME:
+                    metadataService.saveMetadataUsingTableLocking(key, getName());
+                    break;
+                case FOR_UPDATE:
+                    metadataService.saveMetadataForUpdate(key, getName());
+                    break;
+                case OPTIMISTIC:
+                    metadataService.saveMetadataOptimistic(key, getName());
+                    break;
+                default:
+                    metadataService.saveMetadata(key, getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package io.github.xantorohara.metadata.load;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Results of the load: throughput, latency percentiles and lock-wait share.
+ */
+public class LoadReport {
+    private static final double NANOS_PER_MICRO = 1000.0;
+
+    final LoadSettings settings;
+    final Histogram latency;
+    final long reads;
+    final long writes;
+    final long errors;
+    final long elapsedNanos;
+    final long lockWaitNanos;
+    final Histogram connectionHold;
+
+    LoadReport(LoadSettings settings, Histogram latency, long reads, long writes, long errors,
+               long elapsedNanos, long lockWaitNanos, Histogram connectionHold) {
+        this.settings = settings;
+        this.latency = latency;
+        this.reads = reads;
+        this.writes = writes;
+        this.errors = errors;
+        this.elapsedNanos = elapsedNanos;
+        this.lockWaitNanos = lockWaitNanos;
+        this.connectionHold = connectionHold;
+    }
+
+    public long getOperations() {
+        return latency.getTotalCount();
+    }
+
+    public double getThroughput() {
+        return getOperations() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * Share of the total operations time spent waiting for the locks.
+     */
+    public double getLockWaitShare() {
+        double total = latency.getMean() * latency.getTotalCount();
+        return total > 0 ? Math.min(1.0, lockWaitNanos / total) : 0;
+    }
+
+    public String toJson() {
+        return String.format(Locale.ROOT, "{%n"
+                        + "  \"mode\": \"%s\",%n"
+                        + "  \"threads\": %d,%n"
+                        + "  \"keys\": %d,%n"
+                        + "  \"skew\": %.3f,%n"
+                        + "  \"writeRatio\": %.3f,%n"
+                        + "  \"seconds\": %.3f,%n"
+                        + "  \"operations\": %d,%n"
+                        + "  \"reads\": %d,%n"
+                        + "  \"writes\": %d,%n"
+                        + "  \"errors\": %d,%n"
+                        + "  \"throughput\": %.1f,%n"
+                        + "  \"latencyMicros\": {\"p50\": %.1f, \"p99\": %.1f, \"p99.9\": %.1f, \"max\": %.1f},%n"
+                        + "  \"lockWaitShare\": %.4f,%n"
+                        + "  \"connectionHoldMicros\": {\"p50\": %.1f, \"p99\": %.1f, \"p99.9\": %.1f, \"max\": %.1f}%n"
+                        + "}",
+                settings.mode, settings.threads, settings.keys, settings.skew, settings.writeRatio,
+                elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1),
+                getOperations(), reads, writes, errors, getThroughput(),
+                micros(latency.getValueAtPercentile(50)),
+                micros(latency.getValueAtPercentile(99)),
+                micros(latency.getValueAtPercentile(99.9)),
+                micros(latency.getMaxValue()),
+                getLockWaitShare(),
+                micros(connectionHold.getValueAtPercentile(50)),
+                micros(connectionHold.getValueAtPercentile(99)),
+                micros(connectionHold.getValueAtPercentile(99.9)),
+                micros(connectionHold.getMaxValue()));
+    }
+
+    /**
+     * Write the JSON summary to the reportName.json file
+     * and the HdrHistogram percentile distribution (in microseconds) to the reportName.hgrm file.
+     */
+    public void write(String reportName) throws FileNotFoundException {
+        try (PrintStream json = new PrintStream(reportName + ".json")) {
+            json.println(toJson());
+        }
+        try (PrintStream hgrm = new PrintStream(reportName + ".hgrm")) {
+            latency.outputPercentileDistribution(hgrm, NANOS_PER_MICRO);
+        }
+    }
+
+    private static double micros(long nanos) {
+        return nanos / NANOS_PER_MICRO;
+    }
+}
@@ -0,0 +1,55 @@
+package io.github.xantorohara.metadata.load;
+
+/**
+ * Load generator settings, can be overridden via system properties, e.g.:
+ * <pre>
+ * mvn test -Dtest=MetadataLoadTest -Dload.threads=32 -Dload.keys=10000 -Dload.skew=1.2 -Dload.seconds=60
+ * </pre>
+ */
+public class LoadSettings {
+
+    /**
+     * Which service method is used for writes.
+     */
+    public enum Mode {
+        /**
+         * MetaLock per metadata key
+         */
+        META,
+        /**
+         * NameLock for the whole table
+         */
+        NAME,
+        /**
+         * No MetaLock, SELECT ... FOR UPDATE of the row
+         */
+        FOR_UPDATE,
+        /**
+         * No locks, @Version check with retries
+         */
+        OPTIMISTIC
+    }
+
+    Mode mode = Mode.META;
+    int threads = 8;
+    int keys = 1000;
+    double skew = 0.99;
+    double writeRatio = 0.2;
+    int warmupSeconds = 1;
+    int seconds = 3;
+    String reportName = "target/load-report";
+
+    public static LoadSettings fromSystemProperties() {
+        LoadSettings settings = new LoadSettings();
+        settings.mode = Mode.valueOf(System.getProperty("load.mode", settings.mode.name()).toUpperCase());
+        settings.threads = Integer.getInteger("load.threads", settings.threads);
+        settings.keys = Integer.getInteger("load.keys", settings.keys);
+        settings.skew = Double.parseDouble(System.getProperty("load.skew", String.valueOf(settings.skew)));
+        settings.writeRatio = Double.parseDouble(System.getProperty("load.writeRatio",
+                String.valueOf(settings.writeRatio)));
+        settings.warmupSeconds = Integer.getInteger("load.warmupSeconds", settings.warmupSeconds);
+        settings.seconds = Integer.getInteger("load.seconds", settings.seconds);
+        settings.reportName = System.getProperty("load.report", settings.reportName);
+        return settings;
+    }
+}
@@ -0,0 +1,47 @@
+package io.github.xantorohara.metadata.load;
+
+import io.github.xantorohara.metalock.LockListener;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sums the time the threads spent waiting for the locks.
+ * Waits started before the measurement start are ignored.
+ * <p/>
+ * Wait starts are kept per lock name, because multi-key and all-or-nothing invocations
+ * start waiting for several locks before they acquire the first one.
+ */
+public class LockWaitRecorder implements LockListener {
+    private final ThreadLocal<Map<String, Long>> waitStarted = ThreadLocal.withInitial(HashMap::new);
+    private final LongAdder waitNanos = new LongAdder();
+    private volatile long measureFrom = Long.MAX_VALUE;
+
+    public void measureFrom(long nanoTime) {
+        waitNanos.reset();
+        measureFrom = nanoTime;
+    }
+
+    public long getWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    @Override
+    public void onAcquire(long invocationId, String lockName) {
+        waitStarted.get().put(lockName, System.nanoTime());
+    }
+
+    @Override
+    public void onAcquired(long invocationId, String lockName) {
+        Long started = waitStarted.get().remove(lockName);
+        if (started != null && started >= measureFrom) {
+            waitNanos.add(System.nanoTime() - started);
+        }
+    }
+
+    @Override
+    public void onTimeout(long invocationId, String lockName) {
+        waitStarted.get().remove(lockName);
+    }
+}
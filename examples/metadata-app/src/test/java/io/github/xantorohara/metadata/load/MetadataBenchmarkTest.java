@@ -0,0 +1,77 @@
+package io.github.xantorohara.metadata.load;
+
+import io.github.xantorohara.metadata.Application;
+import io.github.xantorohara.metadata.service.MetadataService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Locale;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+
+/**
+ * Compares MetaLock row locking with SELECT ... FOR UPDATE and optimistic @Version retries
+ * under the same load (see LoadSettings). It runs only with the "benchmark" profile:
+ * <pre>
+ * mvn test -Pbenchmark -Dload.threads=16 -Dload.skew=1.2 -Dload.seconds=30
+ * </pre>
+ * Reports are written to target/benchmark-MODE.json and target/benchmark-MODE.hgrm.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = {Application.class, LoadConfiguration.class})
+@TestPropertySource(properties = {
+        "spring.jpa.show-sql=false",
+        "logging.level.io.github.xantorohara=INFO",
+        "logging.level.org.hibernate.type.descriptor.sql.BasicBinder=INFO"
+})
+public class MetadataBenchmarkTest {
+    protected final Logger log = LoggerFactory.getLogger(getClass());
+
+    private static final LoadSettings.Mode[] MODES = {
+            LoadSettings.Mode.META, LoadSettings.Mode.FOR_UPDATE, LoadSettings.Mode.OPTIMISTIC
+    };
+
+    @Autowired
+    MetadataService metadataService;
+
+    @Autowired
+    LockWaitRecorder lockWaitRecorder;
+
+    @Autowired
+    ConnectionHoldRecorder connectionHoldRecorder;
+
+    @Test
+    public void compareLockingStrategies() throws Exception {
+        StringBuilder summary = new StringBuilder(String.format(Locale.ROOT,
+                "%n%-12s %12s %12s %12s %12s %14s %8s%n",
+                "mode", "ops/s", "p50 us", "p99 us", "p99.9 us", "conn p99 us", "errors"));
+
+        for (LoadSettings.Mode mode : MODES) {
+            LoadSettings settings = LoadSettings.fromSystemProperties();
+            settings.mode = mode;
+
+            LoadReport report = new LoadGenerator(settings, metadataService, lockWaitRecorder, connectionHoldRecorder)
+                    .run();
+            report.write("target/benchmark-" + mode);
+
+            summary.append(String.format(Locale.ROOT, "%-12s %12.1f %12.1f %12.1f %12.1f %14.1f %8d%n",
+                    mode, report.getThroughput(),
+                    report.latency.getValueAtPercentile(50) / 1000.0,
+                    report.latency.getValueAtPercentile(99) / 1000.0,
+                    report.latency.getValueAtPercentile(99.9) / 1000.0,
+                    report.connectionHold.getValueAtPercentile(99) / 1000.0,
+                    report.errors));
+
+            assertThat(report.getOperations(), greaterThan(0L));
+        }
+
+        log.info("Benchmark results:{}", summary);
+    }
+}
@@ -0,0 +1,52 @@
+package io.github.xantorohara.metadata.load;
+
+import io.github.xantorohara.metadata.Application;
+import io.github.xantorohara.metadata.service.MetadataService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+/**
+ * Short load with the default LoadSettings, see LoadSettings for the longer local runs.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = {Application.class, LoadConfiguration.class})
+@TestPropertySource(properties = {
+        "spring.jpa.show-sql=false",
+        "logging.level.io.github.xantorohara=INFO",
+        "logging.level.org.hibernate.type.descriptor.sql.BasicBinder=INFO"
+})
+public class MetadataLoadTest {
+    protected final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    MetadataService metadataService;
+
+    @Autowired
+    LockWaitRecorder lockWaitRecorder;
+
+    @Autowired
+    ConnectionHoldRecorder connectionHoldRecorder;
+
+    @Test
+    public void zipfLoad() throws Exception {
+        LoadSettings settings = LoadSettings.fromSystemProperties();
+        LoadReport report = new LoadGenerator(settings, metadataService, lockWaitRecorder, connectionHoldRecorder)
+                .run();
+        report.write(settings.reportName);
+
+        log.info("Load report:\n{}", report.toJson());
+
+        assertThat(report.getOperations(), greaterThan(0L));
+        assertThat(report.errors, equalTo(0L));
+    }
+}
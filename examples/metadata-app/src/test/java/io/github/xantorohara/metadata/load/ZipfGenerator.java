@@ -0,0 +1,35 @@
+package io.github.xantorohara.metadata.load;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates key indexes 0..n-1 with the Zipf distribution: P(k) ~ 1 / (k + 1)^skew.
+ * Skew 0 gives the uniform distribution, skew around 1 is a typical "hot keys" profile.
+ */
+public class ZipfGenerator {
+    private final double[] cdf;
+
+    public ZipfGenerator(int keys, double skew) {
+        if (keys < 1) {
+            throw new IllegalArgumentException("Keys count must be positive: " + keys);
+        }
+        cdf = new double[keys];
+        double sum = 0;
+        for (int k = 0; k < keys; k++) {
+            sum += 1 / Math.pow(k + 1, skew);
+            cdf[k] = sum;
+        }
+        for (int k = 0; k < keys; k++) {
+            cdf[k] /= sum;
+        }
+    }
+
+    public int next(Random random) {
+        int index = Arrays.binarySearch(cdf, random.nextDouble());
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return Math.min(index, cdf.length - 1);
+    }
+}
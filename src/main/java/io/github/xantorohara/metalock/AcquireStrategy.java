@@ -0,0 +1,25 @@
+package io.github.xantorohara.metalock;
+
+/**
+ * How the aspect acquires several locks of one method.
+ *
+ * @author Xantorohara
+ */
+public enum AcquireStrategy {
+    /**
+     * Block on locks one by one in sorted order (default).
+     * A thread may hold some locks while it waits for others.
+     */
+    ORDERED,
+
+    /**
+     * Try to lock the whole sorted set at once. On failure release everything,
+     * back off for a random time and then wait only on the contended lock while holding nothing else.
+     * It reduces convoys across keys, because a waiting thread never blocks callers of its other keys.
+     * <p/>
+     * Try-locks don't respect the fairness: an attempt may take a free lock before its queued waiters.
+     * So methods with compact, escalated or deadline-ordered (LockQueue.DEADLINE) keys
+     * are always acquired in the ORDERED way.
+     */
+    ALL_OR_NOTHING
+}
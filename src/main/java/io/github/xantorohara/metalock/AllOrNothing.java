@@ -0,0 +1,75 @@
+package io.github.xantorohara.metalock;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * All-or-nothing acquisition of several locks (see AcquireStrategy.ALL_OR_NOTHING).
+ * <p/>
+ * It try-locks all the locks in order. If some lock is busy, it releases the acquired ones,
+ * backs off for a random time, waits only on the contended lock and then try-locks the rest.
+ * The thread never waits while holding other locks, so it is deadlock-free in any order.
+ *
+ * @author Xantorohara
+ */
+final class AllOrNothing {
+    /**
+     * Initial backoff in nanoseconds, it doubles on each retry.
+     */
+    private static final long MIN_BACKOFF = 1000;
+
+    /**
+     * Maximal backoff in nanoseconds.
+     */
+    private static final long MAX_BACKOFF = 1000000;
+
+    private AllOrNothing() {
+    }
+
+    /**
+     * Acquire all the locks or none.
+     *
+     * @param count   - number of locks
+     * @param tryLock - try to lock the i-th lock without waiting
+     * @param lock    - wait for the i-th lock, returns false if the wait has timed out
+     * @param unlock  - unlock the i-th lock
+     * @return -1 if all the locks are acquired, or index of the lock which wait has timed out
+     */
+    static int acquire(final int count, final IntPredicate tryLock, final IntPredicate lock,
+                       final IntConsumer unlock) {
+        int contended = -1;
+        long backoff = MIN_BACKOFF;
+
+        while (true) {
+            if (contended >= 0 && !lock.test(contended)) {
+                return contended;
+            }
+
+            int failed = -1;
+            for (int i = 0; i < count; i++) {
+                if (i != contended && !tryLock.test(i)) {
+                    failed = i;
+                    break;
+                }
+            }
+            if (failed < 0) {
+                return -1;
+            }
+
+            for (int i = failed - 1; i >= 0; i--) {
+                if (i != contended) {
+                    unlock.accept(i);
+                }
+            }
+            if (contended >= 0) {
+                unlock.accept(contended);
+            }
+
+            contended = failed;
+            LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(backoff) + 1);
+            backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        }
+    }
+}
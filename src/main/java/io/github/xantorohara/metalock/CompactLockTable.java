@@ -0,0 +1,317 @@
+package io.github.xantorohara.metalock;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compact table of reentrant exclusive locks identified by 64-bit keys.
+ * <p/>
+ * It is intended for the cases when a lot of keys are held at once (e.g. batch import of rows):
+ * instead of the String key, map node and ReentrantLock per key it keeps only the key,
+ * the owner thread and the hold count in the open-addressing arrays, i.e. tens of bytes per held key.
+ * Waiters queue of the key is created only when somebody really waits for it
+ * and it is dropped when the key becomes uncontended. Free keys are not stored at all.
+ * <p/>
+ * The table is split into segments guarded by their own monitors.
+ * Waiters are served in the FIFO order, the lock is handed off directly to the first waiter.
+ * <p/>
+ * Keys are either primitive ids or fingerprints of strings, see fingerprint().
+ * Two different strings with the same fingerprint share the lock: it is safe,
+ * they just can't be held concurrently.
+ *
+ * @author Xantorohara
+ */
+public final class CompactLockTable {
+    private static final int DEFAULT_SEGMENTS = 64;
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Segment grows when it is filled more than by 3/4 and shrinks when it is filled less than by 1/8.
+     */
+    private static final int GROW_NUMERATOR = 3;
+    private static final int GROW_DENOMINATOR = 4;
+    private static final int SHRINK_DENOMINATOR = 8;
+
+    private static final long EMPTY = 0;
+
+    /**
+     * Replacement of the zero key, which marks empty slots.
+     */
+    private static final long ZERO_KEY = 0x9E3779B97F4A7C15L;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long MIX1 = 0xff51afd7ed558ccdL;
+    private static final long MIX2 = 0xc4ceb9fe1a85ec53L;
+    private static final int HALF = 32;
+    private static final int SHIFT = 33;
+
+    private final Segment[] segments;
+
+    public CompactLockTable() {
+        this(DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * @param concurrency - number of segments, it is rounded up to the power of two
+     */
+    public CompactLockTable(final int concurrency) {
+        int count = Integer.highestOneBit(Math.max(1, concurrency - 1) << 1);
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * 64-bit fingerprint of the string (FNV-1a with the final mixing).
+     */
+    public static long fingerprint(final CharSequence value) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(final long key) {
+        long hash = key;
+        hash ^= hash >>> SHIFT;
+        hash *= MIX1;
+        hash ^= hash >>> SHIFT;
+        hash *= MIX2;
+        hash ^= hash >>> SHIFT;
+        return hash;
+    }
+
+    private static long normalize(final long key) {
+        if (key == EMPTY) {
+            return ZERO_KEY;
+        }
+        return key;
+    }
+
+    private Segment segmentFor(final long key) {
+        return segments[(int) (mix(key) >>> HALF) & (segments.length - 1)];
+    }
+
+    /**
+     * Acquire the lock, waiting if it is held by another thread.
+     * Waiting is not interruptible, the interrupt status is restored after the acquisition.
+     */
+    public void lock(final long key) {
+        long k = normalize(key);
+        segmentFor(k).lock(k);
+    }
+
+    /**
+     * Acquire the lock only if it is free or already held by the current thread.
+     */
+    public boolean tryLock(final long key) {
+        long k = normalize(key);
+        return segmentFor(k).tryLock(k);
+    }
+
+    /**
+     * Release the lock held by the current thread.
+     *
+     * @throws IllegalMonitorStateException if the current thread doesn't hold the lock
+     */
+    public void unlock(final long key) {
+        long k = normalize(key);
+        segmentFor(k).unlock(k);
+    }
+
+    public boolean isHeldByCurrentThread(final long key) {
+        long k = normalize(key);
+        return segmentFor(k).getOwner(k) == Thread.currentThread();
+    }
+
+    /**
+     * Number of held keys.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Open-addressing table (linear probing) of held keys with their owners and hold counts.
+     * All fields are guarded by the segment's monitor.
+     */
+    private static final class Segment {
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private Thread[] owners = new Thread[INITIAL_CAPACITY];
+        private int[] holds = new int[INITIAL_CAPACITY];
+        private int size;
+
+        /**
+         * Queues of waiters for the contended keys, created on demand.
+         */
+        private Map<Long, ArrayDeque<Thread>> waiters;
+
+        void lock(final long key) {
+            Thread current = Thread.currentThread();
+            synchronized (this) {
+                if (tryLock(key, current)) {
+                    return;
+                }
+                if (waiters == null) {
+                    waiters = new HashMap<>();
+                }
+                waiters.computeIfAbsent(key, k -> new ArrayDeque<>()).add(current);
+            }
+
+            boolean interrupted = false;
+            while (getOwner(key) != current) {
+                ManagedBlocking.park(this, false, 0);
+                if (Thread.interrupted()) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                current.interrupt();
+            }
+        }
+
+        synchronized boolean tryLock(final long key) {
+            return tryLock(key, Thread.currentThread());
+        }
+
+        private boolean tryLock(final long key, final Thread current) {
+            int slot = find(key);
+            if (slot < 0) {
+                insert(key, current);
+                return true;
+            }
+            if (owners[slot] == current) {
+                holds[slot]++;
+                return true;
+            }
+            return false;
+        }
+
+        void unlock(final long key) {
+            Thread next = null;
+            synchronized (this) {
+                int slot = find(key);
+                if (slot < 0 || owners[slot] != Thread.currentThread()) {
+                    throw new IllegalMonitorStateException();
+                }
+                if (--holds[slot] > 0) {
+                    return;
+                }
+
+                ArrayDeque<Thread> queue = null;
+                if (waiters != null) {
+                    queue = waiters.get(key);
+                }
+                if (queue == null) {
+                    remove(slot);
+                    return;
+                }
+
+                next = queue.poll();
+                if (queue.isEmpty()) {
+                    waiters.remove(key);
+                    if (waiters.isEmpty()) {
+                        waiters = null;
+                    }
+                }
+                owners[slot] = next;
+                holds[slot] = 1;
+            }
+            LockSupport.unpark(next);
+        }
+
+        synchronized Thread getOwner(final long key) {
+            int slot = find(key);
+            if (slot < 0) {
+                return null;
+            }
+            return owners[slot];
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        private int find(final long key) {
+            int mask = keys.length - 1;
+            for (int i = (int) mix(key) & mask;; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return i;
+                }
+                if (keys[i] == EMPTY) {
+                    return -1;
+                }
+            }
+        }
+
+        private void insert(final long key, final Thread owner) {
+            if ((size + 1) * GROW_DENOMINATOR > keys.length * GROW_NUMERATOR) {
+                resize(keys.length * 2);
+            }
+            put(key, owner, 1);
+            size++;
+        }
+
+        private void put(final long key, final Thread owner, final int count) {
+            int mask = keys.length - 1;
+            int i = (int) mix(key) & mask;
+            while (keys[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            owners[i] = owner;
+            holds[i] = count;
+        }
+
+        /**
+         * Remove the slot and shift back the following keys of the probe sequence.
+         */
+        private void remove(final int slot) {
+            int mask = keys.length - 1;
+            int hole = slot;
+            for (int i = (hole + 1) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+                int home = (int) mix(keys[i]) & mask;
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    keys[hole] = keys[i];
+                    owners[hole] = owners[i];
+                    holds[hole] = holds[i];
+                    hole = i;
+                }
+            }
+            keys[hole] = EMPTY;
+            owners[hole] = null;
+            holds[hole] = 0;
+            size--;
+
+            if (keys.length > INITIAL_CAPACITY && size * SHRINK_DENOMINATOR < keys.length) {
+                resize(keys.length / 2);
+            }
+        }
+
+        private void resize(final int capacity) {
+            long[] oldKeys = keys;
+            Thread[] oldOwners = owners;
+            int[] oldHolds = holds;
+
+            keys = new long[capacity];
+            owners = new Thread[capacity];
+            holds = new int[capacity];
+
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    put(oldKeys[i], oldOwners[i], oldHolds[i]);
+                }
+            }
+        }
+    }
+}
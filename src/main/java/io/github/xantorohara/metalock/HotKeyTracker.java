@@ -0,0 +1,204 @@
+package io.github.xantorohara.metalock;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded-memory tracker of the most contended lock keys.
+ * <p/>
+ * MetaLockAspect feeds it only with acquisitions that had to wait (the key was already
+ * reserved by another thread), so uncontended locking doesn't touch it at all.
+ * Keys are ranked by the total wait time using the weighted Space-Saving algorithm:
+ * the summary keeps at most "capacity" keys, a new key replaces the key with the least wait time
+ * and inherits its wait time as an error. So memory doesn't depend on the number of keys,
+ * and any key with the real wait time above the total/capacity is guaranteed to be tracked.
+ * <p/>
+ * Keys are spread over independent stripes, each stripe is such a summary of "capacity" keys
+ * with its own monitor, so contended acquisitions of different keys rarely meet here,
+ * and the guarantee above holds within each stripe (so for the whole tracker too).
+ * The top is merged from the stripes on request.
+ * <p/>
+ * Usage:
+ * <pre>
+ * metaLockAspect.setHotKeyTracker(new HotKeyTracker(16));
+ * ...
+ * List&lt;HotKeyTracker.HotKey&gt; hotKeys = metaLockAspect.getHotKeyTracker().getHotKeys();
+ * </pre>
+ *
+ * @author Xantorohara
+ */
+public final class HotKeyTracker {
+
+    /**
+     * Number of stripes, power of two.
+     */
+    private static final int STRIPES = 8;
+
+    /**
+     * High bits of the hash code are mixed into the stripe index.
+     */
+    private static final int SPREAD_SHIFT = 16;
+
+    private final int capacity;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public HotKeyTracker(final int maxKeys) {
+        if (maxKeys < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + maxKeys);
+        }
+        this.capacity = maxKeys;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(maxKeys);
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Record the acquisition of the lock that had to wait.
+     */
+    void record(final String lockName, final long waitNanos) {
+        int hash = lockName.hashCode();
+        Stripe stripe = stripes[(hash ^ (hash >>> SPREAD_SHIFT)) & (STRIPES - 1)];
+        synchronized (stripe) {
+            stripe.record(lockName, waitNanos);
+        }
+    }
+
+    /**
+     * Tracked keys, the most contended first, at most "capacity" keys.
+     */
+    public List<HotKey> getHotKeys() {
+        List<HotKey> hotKeys = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Map.Entry<String, Counter> entry : stripe.counters.entrySet()) {
+                    Counter counter = entry.getValue();
+                    hotKeys.add(new HotKey(entry.getKey(), counter.waits, counter.waitNanos, counter.errorNanos));
+                }
+            }
+        }
+        hotKeys.sort(Comparator.comparingLong(HotKey::getWaitNanos).reversed());
+        if (hotKeys.size() > capacity) {
+            return new ArrayList<>(hotKeys.subList(0, capacity));
+        }
+        return hotKeys;
+    }
+
+    /**
+     * Forget all tracked keys.
+     */
+    public void reset() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.counters.clear();
+            }
+        }
+    }
+
+    /**
+     * Space-Saving summary of the keys of one stripe, guarded by its own monitor.
+     */
+    private static final class Stripe {
+        private final int capacity;
+        private final Map<String, Counter> counters;
+
+        Stripe(final int maxKeys) {
+            this.capacity = maxKeys;
+            this.counters = new HashMap<>(maxKeys * 2);
+        }
+
+        void record(final String lockName, final long waitNanos) {
+            Counter counter = counters.get(lockName);
+            if (counter == null) {
+                if (counters.size() < capacity) {
+                    counter = new Counter();
+                } else {
+                    counter = evict();
+                }
+                counters.put(lockName, counter);
+            }
+            counter.waits++;
+            counter.waitNanos += waitNanos;
+        }
+
+        /**
+         * Remove the key with the least wait time, its counter is reused by the new key.
+         */
+        private Counter evict() {
+            Map.Entry<String, Counter> min = null;
+            for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+                if (min == null || entry.getValue().waitNanos < min.getValue().waitNanos) {
+                    min = entry;
+                }
+            }
+            Counter counter = counters.remove(min.getKey());
+            counter.errorNanos = counter.waitNanos;
+            counter.waits = 0;
+            return counter;
+        }
+    }
+
+    /**
+     * Mutable counters of the tracked key.
+     */
+    private static final class Counter {
+        private long waits;
+        private long waitNanos;
+        private long errorNanos;
+    }
+
+    /**
+     * Snapshot of the tracked key.
+     */
+    public static final class HotKey {
+        private final String lockName;
+        private final long waits;
+        private final long waitNanos;
+        private final long errorNanos;
+
+        HotKey(final String name, final long waitCount, final long waitTime, final long errorTime) {
+            this.lockName = name;
+            this.waits = waitCount;
+            this.waitNanos = waitTime;
+            this.errorNanos = errorTime;
+        }
+
+        public String getLockName() {
+            return lockName;
+        }
+
+        /**
+         * Acquisitions that had to wait since the key is tracked.
+         */
+        public long getWaits() {
+            return waits;
+        }
+
+        /**
+         * Total wait time, it may be overestimated by the getErrorNanos().
+         */
+        public long getWaitNanos() {
+            return waitNanos;
+        }
+
+        /**
+         * Maximal overestimation of the wait time inherited from the evicted key.
+         */
+        public long getErrorNanos() {
+            return errorNanos;
+        }
+
+        @Override
+        public String toString() {
+            return lockName + " waits: " + waits + ", wait time: " + TimeUnit.NANOSECONDS.toMillis(waitNanos) + " ms";
+        }
+    }
+}
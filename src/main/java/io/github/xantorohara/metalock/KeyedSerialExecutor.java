@@ -0,0 +1,226 @@
+package io.github.xantorohara.metalock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Executor that runs tasks with the same key serially, in the order of submission,
+ * on the shared pool. Tasks with different keys run in parallel.
+ * <p/>
+ * No thread ever waits for a key: the task of a busy key is just queued,
+ * and the pool thread that completes the task submits the next task of the same key back to the pool.
+ * So the pool threads are always busy with the runnable tasks.
+ * The queue of the key is evicted as soon as it becomes empty, like the MetaLock's locks.
+ * Queues are handed off via the atomic operations of the ConcurrentHashMap on their keys,
+ * so submitters of different keys don't contend.
+ * <p/>
+ * If the pool rejects the task that starts the queue, execute() throws the RejectedExecutionException,
+ * and the tasks queued after it are dropped: futures of the submitted ones complete with the same exception.
+ * If the pool rejects the next task of the queue, the queue is drained in the current pool thread.
+ * <p/>
+ * Errors thrown by tasks are not caught: they propagate to the pool thread, the future of the submitted
+ * task is cancelled, and the rest of the queue is handed to the pool.
+ *
+ * @author Xantorohara
+ */
+public final class KeyedSerialExecutor {
+    private static final Logger LOG = LoggerFactory.getLogger(KeyedSerialExecutor.class);
+
+    private final Executor executor;
+
+    /**
+     * Queues of the keys with pending or running tasks.
+     * The pending tasks of the queue are changed only inside the map operations on its key.
+     */
+    private final ConcurrentMap<String, KeyQueue> queues = new ConcurrentHashMap<>();
+
+    public KeyedSerialExecutor(final Executor pool) {
+        this.executor = pool;
+    }
+
+    /**
+     * Execute the task after all previously submitted tasks with the same key.
+     */
+    public void execute(final String key, final Runnable task) {
+        KeyQueue[] created = new KeyQueue[1];
+        queues.compute(key, (k, queue) -> {
+            if (queue != null) {
+                queue.pending.add(task);
+                return queue;
+            }
+            created[0] = new KeyQueue(k, task);
+            return created[0];
+        });
+
+        if (created[0] != null) {
+            try {
+                executor.execute(created[0]);
+            } catch (RejectedExecutionException e) {
+                created[0].drop(e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Execute the task after all previously submitted tasks with the same key.
+     *
+     * @return future of the task result
+     */
+    public <T> CompletableFuture<T> submit(final String key, final Callable<T> task) {
+        SubmittedTask<T> submittedTask = new SubmittedTask<>(task);
+        execute(key, submittedTask);
+        return submittedTask.future;
+    }
+
+    /**
+     * Number of keys with pending or running tasks.
+     */
+    public int size() {
+        return queues.size();
+    }
+
+    /**
+     * Tasks of one key, the first one is running (or submitted to the pool).
+     */
+    private final class KeyQueue implements Runnable {
+        private final String key;
+        private final ArrayDeque<Runnable> pending = new ArrayDeque<>();
+        private Runnable current;
+
+        KeyQueue(final String queueKey, final Runnable first) {
+            this.key = queueKey;
+            this.current = first;
+        }
+
+        /**
+         * Run the current task and submit the next one back to the pool,
+         * while the pool rejects them, run them here one by one.
+         */
+        @Override
+        public void run() {
+            boolean inline = false;
+            while (true) {
+                boolean failed = true;
+                try {
+                    current.run();
+                    failed = false;
+                } catch (RuntimeException e) {
+                    LOG.error("Task of the key {} failed", key, e);
+                    failed = false;
+                } finally {
+                    if (failed) {
+                        handOff();
+                    }
+                }
+
+                if (!poll()) {
+                    return;
+                }
+                try {
+                    executor.execute(this);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    if (!inline) {
+                        LOG.warn("Pool rejected the task of the key {}, the queue runs in the current thread", key);
+                        inline = true;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Take the next task as the current one, or evict the queue if there are no more tasks.
+         *
+         * @return false if the queue is evicted
+         */
+        private boolean poll() {
+            queues.computeIfPresent(key, (k, queue) -> {
+                current = pending.poll();
+                if (current == null) {
+                    return null;
+                }
+                return queue;
+            });
+            return current != null;
+        }
+
+        /**
+         * Hand the rest of the queue to the pool while the Error of the current task propagates.
+         */
+        private void handOff() {
+            if (poll()) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    drop(e);
+                }
+            }
+        }
+
+        /**
+         * Evict the queue whose current task was rejected, complete futures of the current and pending tasks.
+         */
+        private void drop(final RejectedExecutionException rejection) {
+            Runnable[][] dropped = {new Runnable[0]};
+            queues.computeIfPresent(key, (k, queue) -> {
+                if (queue != this) {
+                    return queue;
+                }
+                dropped[0] = pending.toArray(new Runnable[0]);
+                pending.clear();
+                return null;
+            });
+            if (dropped[0].length > 0) {
+                LOG.warn("Pool rejected the task of the key {}, {} pending tasks are dropped", key, dropped[0].length);
+            }
+            fail(current, rejection);
+            for (Runnable task : dropped[0]) {
+                fail(task, rejection);
+            }
+        }
+
+        private void fail(final Runnable task, final RejectedExecutionException rejection) {
+            if (task instanceof SubmittedTask) {
+                ((SubmittedTask<?>) task).future.completeExceptionally(rejection);
+            }
+        }
+    }
+
+    /**
+     * Task with the future of its result, see submit().
+     * The future completes exceptionally with the Exception of the task, Errors propagate
+     * and just cancel the future, so its waiters don't hang.
+     *
+     * @param <T> - type of the result
+     */
+    private static final class SubmittedTask<T> implements Runnable {
+        private final Callable<T> task;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        SubmittedTask(final Callable<T> callable) {
+            this.task = callable;
+        }
+
+        @Override
+        public void run() {
+            try {
+                future.complete(task.call());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            } finally {
+                if (!future.isDone()) {
+                    future.cancel(false);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package io.github.xantorohara.metalock;
+
+/**
+ * Backend that makes locks of the MetaLockAspect and the NameLockAspect exclusive across JVMs,
+ * e.g. the RemoteLockBackend of the standalone lock server (see the io.github.xantorohara.metalock.remote package).
+ * <p/>
+ * Aspects acquire keys in the backend after the local locks and release them before the local locks,
+ * so at most one thread of the JVM waits for the same key in the backend.
+ * Keys of the NameLockAspect are prefixed with the NAME_LOCK_PREFIX.
+ *
+ * @author Xantorohara
+ */
+public interface LockBackend {
+
+    /**
+     * Prefix of the keys of the NameLockAspect, so they don't clash with MetaLock keys.
+     */
+    String NAME_LOCK_PREFIX = "#";
+
+    /**
+     * Acquire all keys for the current thread, wait until all of them are acquired.
+     * Keys are sorted, repeated keys and repeated acquisitions by the same thread are reentrant.
+     *
+     * @throws RuntimeException if the backend is not available, no keys are held in this case
+     */
+    void lock(String[] sortedKeys);
+
+    /**
+     * Release keys acquired by the current thread.
+     */
+    void unlock(String[] sortedKeys);
+}
@@ -0,0 +1,48 @@
+package io.github.xantorohara.metalock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread-local deadline of the current request.
+ * <p/>
+ * It is used by locks with the LockQueue.DEADLINE queue: waiters are served earliest-deadline-first,
+ * and waiters with expired deadlines are dropped.
+ * For example, a web filter can set the deadline from the request budget:
+ * <pre>
+ * LockDeadline.set(500, TimeUnit.MILLISECONDS);
+ * try {
+ *     chain.doFilter(request, response);
+ * } finally {
+ *     LockDeadline.clear();
+ * }
+ * </pre>
+ *
+ * @author Xantorohara
+ */
+public final class LockDeadline {
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    private LockDeadline() {
+    }
+
+    /**
+     * Set the deadline of the current thread to now + timeout.
+     */
+    public static void set(final long timeout, final TimeUnit unit) {
+        DEADLINE.set(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Clear the deadline of the current thread.
+     */
+    public static void clear() {
+        DEADLINE.remove();
+    }
+
+    /**
+     * Deadline of the current thread in terms of the System.nanoTime(), or null if it is not set.
+     */
+    static Long get() {
+        return DEADLINE.get();
+    }
+}
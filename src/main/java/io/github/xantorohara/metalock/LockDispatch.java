@@ -0,0 +1,21 @@
+package io.github.xantorohara.metalock;
+
+/**
+ * How the method annotated with @MetaLock is executed.
+ *
+ * @author Xantorohara
+ */
+public enum LockDispatch {
+    /**
+     * In the caller thread, the caller waits for the lock.
+     */
+    SYNC,
+
+    /**
+     * In the shared pool via the KeyedSerialExecutor, calls with the same key are executed one by one
+     * in the order of invocations, the caller doesn't wait at all.
+     * The method must return void or CompletableFuture (Future, CompletionStage)
+     * and must have only one @MetaLock.
+     */
+    ASYNC
+}
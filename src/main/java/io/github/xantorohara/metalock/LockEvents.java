@@ -0,0 +1,63 @@
+package io.github.xantorohara.metalock;
+
+/**
+ * Diagnostic events of the lock waiting and holding.
+ * <p/>
+ * This is the no-op implementation for Java 8.
+ * The multi-release jar contains Java 11+ implementation of this class (see src/main/java11),
+ * it records these events as JFR events: MetaLockWait and MetaLockHold.
+ * <p/>
+ * Events are passed around as plain Objects, so the aspects don't depend on the JFR API.
+ *
+ * @author Xantorohara
+ */
+final class LockEvents {
+    static final String ACQUIRED = "Acquired";
+    static final String REJECTED = "Rejected";
+    static final String EXPIRED = "Expired";
+    static final String COMPLETED = "Completed";
+    static final String FAILED = "Failed";
+
+    private LockEvents() {
+    }
+
+    /**
+     * Start waiting for the lock.
+     *
+     * @return event to finish via the endWait() method, null if the event is not recorded
+     */
+    static Object beginWait() {
+        return null;
+    }
+
+    /**
+     * Finish waiting for the lock.
+     *
+     * @param event      - event from the beginWait() method
+     * @param lockName   - name of the lock (lock key)
+     * @param methodName - name of the wrapped method
+     * @param outcome    - ACQUIRED, REJECTED or EXPIRED
+     */
+    static void endWait(final Object event, final String lockName, final String methodName, final String outcome) {
+    }
+
+    /**
+     * Start holding of the locks.
+     *
+     * @return event to finish via the endHold() method, null if the event is not recorded
+     */
+    static Object beginHold() {
+        return null;
+    }
+
+    /**
+     * Finish holding of the locks.
+     *
+     * @param event      - event from the beginHold() method
+     * @param lockNames  - names of the held locks (lock keys)
+     * @param methodName - name of the wrapped method
+     * @param outcome    - COMPLETED or FAILED
+     */
+    static void endHold(final Object event, final String[] lockNames, final String methodName, final String outcome) {
+    }
+}
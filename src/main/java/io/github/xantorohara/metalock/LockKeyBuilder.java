@@ -0,0 +1,15 @@
+package io.github.xantorohara.metalock;
+
+/**
+ * Builds lock names of the method annotated as @MetaLock from its arguments.
+ *
+ * @author Xantorohara
+ */
+@FunctionalInterface
+public interface LockKeyBuilder {
+    /**
+     * @param args - method arguments
+     * @return lock names in the order of the @MetaLock annotations
+     */
+    String[] lockNames(Object[] args);
+}
@@ -0,0 +1,86 @@
+package io.github.xantorohara.metalock;
+
+/**
+ * Callbacks of the lock lifecycle: acquire, acquired, released, timeout and error.
+ * <p/>
+ * Listeners are passed to the aspect constructor and resolved once, so there is no cost
+ * for the aspect without listeners. All methods are no-op by default.
+ * <p/>
+ * Callbacks are invoked from the thread that runs the wrapped method.
+ * The invocation id is unique per wrapped method invocation, it is generated only if some
+ * of the listeners need it (see needsInvocationId()), otherwise it is always 0.
+ *
+ * @author Xantorohara
+ */
+public interface LockListener {
+
+    /**
+     * Whether the listener needs unique invocation ids.
+     * It is checked on each invocation, so the answer may follow e.g. the log level.
+     */
+    default boolean needsInvocationId() {
+        return false;
+    }
+
+    /**
+     * The wrapped method was invoked, locks are not acquired yet.
+     */
+    default void onInvoke(final long invocationId, final String methodName) {
+    }
+
+    /**
+     * The thread starts to acquire the lock, it is followed by onAcquired or onTimeout of the same lock.
+     */
+    default void onAcquire(final long invocationId, final String lockName) {
+    }
+
+    /**
+     * The thread has acquired the lock.
+     */
+    default void onAcquired(final long invocationId, final String lockName) {
+    }
+
+    /**
+     * The lock was not acquired in time, e.g. the caller was rejected by the waiters limit.
+     * If the invocation fails, each lock it has started to acquire and has not acquired gets this callback,
+     * not only the lock that has failed.
+     */
+    default void onTimeout(final long invocationId, final String lockName) {
+    }
+
+    /**
+     * All the locks are acquired and the wrapped method is about to proceed.
+     */
+    default void onProceed(final long invocationId) {
+    }
+
+    /**
+     * The wrapped method has completed successfully.
+     */
+    default void onComplete(final long invocationId) {
+    }
+
+    /**
+     * The wrapped method has thrown an exception.
+     */
+    default void onError(final long invocationId, final Throwable error) {
+    }
+
+    /**
+     * The thread starts to release the lock.
+     */
+    default void onRelease(final long invocationId, final String lockName) {
+    }
+
+    /**
+     * The released lock was free, so it was removed from the locks storage.
+     */
+    default void onRemoved(final long invocationId, final String lockName) {
+    }
+
+    /**
+     * The thread has released the lock.
+     */
+    default void onReleased(final long invocationId, final String lockName) {
+    }
+}
@@ -0,0 +1,123 @@
+package io.github.xantorohara.metalock;
+
+/**
+ * Resolve a set of listeners into a single one.
+ *
+ * @author Xantorohara
+ */
+final class LockListeners {
+
+    /**
+     * Listener that does nothing.
+     */
+    static final LockListener NONE = new LockListener() {
+    };
+
+    private LockListeners() {
+    }
+
+    /**
+     * Resolve listeners once: no listeners - NONE, single listener - itself,
+     * multiple listeners - composite one.
+     */
+    static LockListener resolve(final LockListener... listeners) {
+        if (listeners == null || listeners.length == 0) {
+            return NONE;
+        }
+        if (listeners.length == 1) {
+            return listeners[0];
+        }
+        return new CompositeLockListener(listeners.clone());
+    }
+
+    /**
+     * Listener that notifies all the given listeners in order.
+     */
+    private static final class CompositeLockListener implements LockListener {
+        private final LockListener[] listeners;
+
+        CompositeLockListener(final LockListener[] lockListeners) {
+            this.listeners = lockListeners;
+        }
+
+        @Override
+        public boolean needsInvocationId() {
+            for (LockListener listener : listeners) {
+                if (listener.needsInvocationId()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void onInvoke(final long invocationId, final String methodName) {
+            for (LockListener listener : listeners) {
+                listener.onInvoke(invocationId, methodName);
+            }
+        }
+
+        @Override
+        public void onAcquire(final long invocationId, final String lockName) {
+            for (LockListener listener : listeners) {
+                listener.onAcquire(invocationId, lockName);
+            }
+        }
+
+        @Override
+        public void onAcquired(final long invocationId, final String lockName) {
+            for (LockListener listener : listeners) {
+                listener.onAcquired(invocationId, lockName);
+            }
+        }
+
+        @Override
+        public void onTimeout(final long invocationId, final String lockName) {
+            for (LockListener listener : listeners) {
+                listener.onTimeout(invocationId, lockName);
+            }
+        }
+
+        @Override
+        public void onProceed(final long invocationId) {
+            for (LockListener listener : listeners) {
+                listener.onProceed(invocationId);
+            }
+        }
+
+        @Override
+        public void onComplete(final long invocationId) {
+            for (LockListener listener : listeners) {
+                listener.onComplete(invocationId);
+            }
+        }
+
+        @Override
+        public void onError(final long invocationId, final Throwable error) {
+            for (LockListener listener : listeners) {
+                listener.onError(invocationId, error);
+            }
+        }
+
+        @Override
+        public void onRelease(final long invocationId, final String lockName) {
+            for (LockListener listener : listeners) {
+                listener.onRelease(invocationId, lockName);
+            }
+        }
+
+        @Override
+        public void onRemoved(final long invocationId, final String lockName) {
+            for (LockListener listener : listeners) {
+                listener.onRemoved(invocationId, lockName);
+            }
+        }
+
+        @Override
+        public void onReleased(final long invocationId, final String lockName) {
+            for (LockListener listener : listeners) {
+                listener.onReleased(invocationId, lockName);
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package io.github.xantorohara.metalock;
+
+/**
+ * How the method annotated with @MetaLock is protected.
+ *
+ * @author Xantorohara
+ */
+public enum LockMode {
+    /**
+     * The method runs while it holds the lock.
+     */
+    EXCLUSIVE,
+
+    /**
+     * The method runs without the lock, then the version of the key is validated and incremented.
+     * If another call has changed the version, the method is repeated (up to MetaLock.retries() times),
+     * then it falls back to the exclusive lock. Versions are only read and compared, so calls without
+     * conflicts never wait.
+     * The method must be safe to repeat and must tolerate concurrent calls with the same key,
+     * e.g. it recomputes a value or applies a conditional update.
+     * All MetaLocks of the method should be optimistic, all methods locked by the same name
+     * should use the same mode.
+     */
+    OPTIMISTIC
+}
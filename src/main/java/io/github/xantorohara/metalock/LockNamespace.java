@@ -0,0 +1,201 @@
+package io.github.xantorohara.metalock;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Policy of the locks with the given name (the name from the @MetaLock annotation).
+ * Each namespace registered in the MetaLockAspect has its own locks storage,
+ * so high-churn names don't interfere with long-held ones:
+ * <pre>
+ * LockNamespace metadata = new LockNamespace("Metadata");
+ * metadata.setFair(false);
+ * metadata.setStripes(16);
+ * metaLockAspect.setNamespaces(Collections.singletonList(metadata));
+ * </pre>
+ * A namespace can be reloaded by registering it again, new values are applied to the next invocations
+ * (fairness - to the next created locks), except the stripes and the pool size
+ * which are fixed when the namespace is created.
+ * <p/>
+ * Names without namespaces share the default storage with the default policy.
+ *
+ * @author Xantorohara
+ */
+public final class LockNamespace {
+
+    /**
+     * Prefix of the namespace properties, see fromProperties().
+     */
+    public static final String PREFIX = "metalock.namespace.";
+
+    private static final int DEFAULT_POOL_SIZE = 32;
+
+    private final String name;
+
+    private boolean fair = true;
+
+    private int stripes = 1;
+
+    private int maxWaiters;
+
+    private long deadline;
+
+    private boolean evict = true;
+
+    private int poolSize = DEFAULT_POOL_SIZE;
+
+    /**
+     * Create namespace with the default policy.
+     *
+     * @param lockName - name of the locks from the annotation
+     */
+    public LockNamespace(final String lockName) {
+        this.name = lockName;
+    }
+
+    /**
+     * Create namespaces from the properties like:
+     * <pre>
+     * metalock.namespace.Metadata.fair=false
+     * metalock.namespace.Metadata.stripes=16
+     * metalock.namespace.Metadata.maxWaiters=100
+     * metalock.namespace.Metadata.deadline=500
+     * metalock.namespace.Metadata.poolSize=64
+     * metalock.namespace.User.evict=false
+     * </pre>
+     * Properties without the prefix are ignored.
+     */
+    public static List<LockNamespace> fromProperties(final Properties properties) {
+        Map<String, LockNamespace> namespaces = new LinkedHashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            int dot = key.lastIndexOf('.');
+            if (!key.startsWith(PREFIX) || dot <= PREFIX.length()) {
+                continue;
+            }
+            LockNamespace namespace = namespaces.computeIfAbsent(key.substring(PREFIX.length(), dot),
+                    LockNamespace::new);
+            namespace.set(key.substring(dot + 1), properties.getProperty(key).trim());
+        }
+        return new ArrayList<>(namespaces.values());
+    }
+
+    private void set(final String property, final String value) {
+        switch (property) {
+            case "fair":
+                fair = Boolean.parseBoolean(value);
+                break;
+            case "stripes":
+                setStripes(Integer.parseInt(value));
+                break;
+            case "maxWaiters":
+                maxWaiters = Integer.parseInt(value);
+                break;
+            case "deadline":
+                deadline = Long.parseLong(value);
+                break;
+            case "evict":
+                evict = Boolean.parseBoolean(value);
+                break;
+            case "poolSize":
+                setPoolSize(Integer.parseInt(value));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown property of the namespace " + name + ": " + property);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isFair() {
+        return fair;
+    }
+
+    /**
+     * Create fair (default) or non-fair locks. Non-fair locks are faster under high churn,
+     * but waiters can be overtaken by newcomers.
+     */
+    public void setFair(final boolean fairLocks) {
+        this.fair = fairLocks;
+    }
+
+    public int getStripes() {
+        return stripes;
+    }
+
+    /**
+     * Number of independent stripes that guard reservations of the locks, 1 by default.
+     */
+    public void setStripes(final int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Stripes must be positive: " + count);
+        }
+        this.stripes = count;
+    }
+
+    public int getMaxWaiters() {
+        return maxWaiters;
+    }
+
+    /**
+     * Default limit of waiters for annotations without maxWaiters, 0 (no limit) by default.
+     */
+    public void setMaxWaiters(final int limit) {
+        this.maxWaiters = limit;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Default deadline in milliseconds for annotations with LockQueue.DEADLINE and without deadline,
+     * 0 (no deadline) by default.
+     */
+    public void setDeadline(final long millis) {
+        this.deadline = millis;
+    }
+
+    public boolean isEvict() {
+        return evict;
+    }
+
+    /**
+     * Remove free locks from the storage (default). Low-cardinality names can keep them to avoid allocations.
+     */
+    public void setEvict(final boolean evictFree) {
+        this.evict = evictFree;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Number of evicted locks kept for reuse by each stripe, 32 by default, 0 disables the pool.
+     */
+    public void setPoolSize(final int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Pool size must not be negative: " + size);
+        }
+        this.poolSize = size;
+    }
+
+    /**
+     * Snapshot of the policy, so later changes of this object don't affect the registered namespace.
+     */
+    LockNamespace copy() {
+        LockNamespace copy = new LockNamespace(name);
+        copy.fair = fair;
+        copy.stripes = stripes;
+        copy.maxWaiters = maxWaiters;
+        copy.deadline = deadline;
+        copy.evict = evict;
+        copy.poolSize = poolSize;
+        return copy;
+    }
+}
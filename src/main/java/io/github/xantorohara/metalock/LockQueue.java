@@ -0,0 +1,20 @@
+package io.github.xantorohara.metalock;
+
+/**
+ * Order in which waiters acquire the lock.
+ *
+ * @author Xantorohara
+ */
+public enum LockQueue {
+    /**
+     * First in, first out (fair lock).
+     */
+    FIFO,
+
+    /**
+     * Earliest deadline first. Waiters without deadline are served after waiters with deadlines,
+     * in order of their arrival. Waiters with expired deadlines are dropped before they acquire the lock
+     * and get the LockTimeoutException.
+     */
+    DEADLINE
+}
@@ -0,0 +1,182 @@
+package io.github.xantorohara.metalock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Locks storage of one LockNamespace, or the default storage of all names without namespaces.
+ * Reservations of the locks are guarded by the stripe of the lock name,
+ * so the same lock name always uses the same stripe.
+ * <p/>
+ * Each stripe keeps a bounded pool of evicted locks, so high-cardinality keys reuse locks
+ * instead of allocating a new one per key. The pool is guarded by its stripe, so it costs nothing
+ * for the passes over the storage that already hold the stripe.
+ *
+ * @author Xantorohara
+ */
+final class LockRegistry {
+    private static final Logger LOG = LoggerFactory.getLogger(LockRegistry.class);
+
+    private final ConcurrentMap<String, ReservedLock> locks = new ConcurrentHashMap<>();
+
+    private final Stripe[] stripes;
+
+    private volatile LockNamespace policy;
+
+    /**
+     * Versions of the optimistic keys, created on demand.
+     */
+    private volatile VersionTable versions;
+
+    LockRegistry(final LockNamespace namespace) {
+        this.policy = namespace.copy();
+        this.stripes = new Stripe[namespace.getStripes()];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(namespace.getPoolSize());
+        }
+    }
+
+    /**
+     * Apply the new policy, stripes can't be changed.
+     */
+    void reload(final LockNamespace namespace) {
+        if (namespace.getStripes() != stripes.length) {
+            LOG.warn("Stripes of the namespace {} can't be changed from {} to {}",
+                    namespace.getName(), stripes.length, namespace.getStripes());
+        }
+        policy = namespace.copy();
+    }
+
+    LockNamespace getPolicy() {
+        return policy;
+    }
+
+    ConcurrentMap<String, ReservedLock> getLocks() {
+        return locks;
+    }
+
+    /**
+     * Versions of the keys for LockMode.OPTIMISTIC.
+     */
+    VersionTable versions() {
+        VersionTable table = versions;
+        if (table == null) {
+            synchronized (this) {
+                table = versions;
+                if (table == null) {
+                    table = new VersionTable();
+                    versions = table;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Stripe that guards reservations of the lock with the given name.
+     */
+    ReentrantLock stripe(final String lockName) {
+        return stripeOf(lockName);
+    }
+
+    private Stripe stripeOf(final String lockName) {
+        if (stripes.length == 1) {
+            return stripes[0];
+        }
+        return stripes[Math.floorMod(lockName.hashCode(), stripes.length)];
+    }
+
+    /**
+     * Create, reuse or obtain the lock, it should be called under the stripe of the lock name.
+     */
+    ReservedLock get(final String lockName) {
+        ReservedLock lock = locks.get(lockName);
+        if (lock == null) {
+            boolean fair = policy.isFair();
+            lock = stripeOf(lockName).poll(fair);
+            if (lock == null) {
+                lock = new ReservedLock(fair);
+            }
+            locks.put(lockName, lock);
+        }
+        return lock;
+    }
+
+    /**
+     * Remove the lock if it is free and the policy evicts free locks,
+     * it should be called under the stripe of the lock name.
+     *
+     * @return true if the lock is removed
+     */
+    boolean evict(final String lockName, final ReservedLock lock) {
+        return lock.isFree() && policy.isEvict() && locks.remove(lockName, lock);
+    }
+
+    /**
+     * Remove the lock like evict() and put it into the pool if it is not locked,
+     * it should be called under the stripe of the lock name.
+     *
+     * @return true if the lock is removed
+     */
+    boolean recycle(final String lockName, final ReservedLock lock) {
+        if (!evict(lockName, lock)) {
+            return false;
+        }
+        if (!lock.isLocked()) {
+            stripeOf(lockName).offer(lock);
+        }
+        return true;
+    }
+
+    /**
+     * Limit of waiters from the annotation or from the policy.
+     */
+    int maxWaiters(final MetaLock metaLock) {
+        if (metaLock.maxWaiters() > 0) {
+            return metaLock.maxWaiters();
+        }
+        return policy.getMaxWaiters();
+    }
+
+    /**
+     * Deadline in milliseconds from the annotation or from the policy.
+     */
+    long deadline(final MetaLock metaLock) {
+        if (metaLock.deadline() > 0) {
+            return metaLock.deadline();
+        }
+        return policy.getDeadline();
+    }
+
+    /**
+     * Stripe with the pool of evicted locks, the pool is guarded by the stripe itself.
+     */
+    private static final class Stripe extends ReentrantLock {
+        private final ReservedLock[] pool;
+        private int pooled;
+
+        Stripe(final int poolSize) {
+            this.pool = new ReservedLock[poolSize];
+        }
+
+        ReservedLock poll(final boolean fair) {
+            if (pooled == 0 || pool[pooled - 1].isFair() != fair) {
+                return null;
+            }
+            ReservedLock lock = pool[--pooled];
+            pool[pooled] = null;
+            return lock;
+        }
+
+        void offer(final ReservedLock lock) {
+            if (pooled < pool.length) {
+                lock.recycle();
+                pool[pooled++] = lock;
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package io.github.xantorohara.metalock;
+
+/**
+ * Thrown when the lock already has too many waiters (see maxWaiters attribute
+ * of the @MetaLock and @NameLock annotations) and the caller is rejected without waiting.
+ *
+ * @author Xantorohara
+ */
+public class LockRejectedException extends RuntimeException {
+    private final String lockName;
+    private final int maxWaiters;
+
+    public LockRejectedException(final String rejectedLockName, final int rejectedMaxWaiters) {
+        super("Lock " + rejectedLockName + " already has " + rejectedMaxWaiters + " waiters");
+        this.lockName = rejectedLockName;
+        this.maxWaiters = rejectedMaxWaiters;
+    }
+
+    /**
+     * Name of the overloaded lock.
+     */
+    public final String getLockName() {
+        return lockName;
+    }
+
+    /**
+     * Waiters limit that was reached.
+     */
+    public final int getMaxWaiters() {
+        return maxWaiters;
+    }
+}
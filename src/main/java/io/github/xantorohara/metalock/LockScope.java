@@ -0,0 +1,22 @@
+package io.github.xantorohara.metalock;
+
+/**
+ * How long the lock of the method annotated with @MetaLock is held.
+ *
+ * @author Xantorohara
+ */
+public enum LockScope {
+    /**
+     * Until the method returns.
+     */
+    METHOD,
+
+    /**
+     * Until the method returns, or if it is called inside the Spring transaction,
+     * until this transaction is committed or rolled back (TransactionSynchronization.afterCompletion).
+     * Requires spring-tx in the classpath.
+     * Annotate the outermost @Transactional method to acquire the lock before the transaction binds
+     * a database connection, so threads waiting for locks don't hold pooled connections.
+     */
+    TRANSACTION
+}
@@ -0,0 +1,23 @@
+package io.github.xantorohara.metalock;
+
+/**
+ * Thrown when the deadline of the caller expired before it acquired the lock
+ * (see LockQueue.DEADLINE).
+ *
+ * @author Xantorohara
+ */
+public class LockTimeoutException extends RuntimeException {
+    private final String lockName;
+
+    public LockTimeoutException(final String expiredLockName) {
+        super("Deadline expired while waiting for the lock " + expiredLockName);
+        this.lockName = expiredLockName;
+    }
+
+    /**
+     * Name of the lock the caller waited for.
+     */
+    public final String getLockName() {
+        return lockName;
+    }
+}
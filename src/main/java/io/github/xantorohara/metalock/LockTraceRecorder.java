@@ -0,0 +1,392 @@
+package io.github.xantorohara.metalock;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LockListener that records the lock timeline and exports it in the Chrome Trace Event format,
+ * which can be opened in chrome://tracing or https://ui.perfetto.dev.
+ * <p/>
+ * Acquire, acquired, timeout and release events are stored in a ring buffer of primitive arrays,
+ * so recording doesn't allocate and doesn't lock: the buffer keeps the last "capacity" events.
+ * The hold ends with onRelease(), before the unlock, so holds of one key never overlap in the trace.
+ * Events are turned into intervals only by the export:
+ * <ul>
+ * <li>"Threads" - per thread: waits for the keys and holds of the keys</li>
+ * <li>"Keys" - per key: holds of the key with the owner thread, so convoys are visible at once</li>
+ * </ul>
+ * Usage:
+ * <pre>
+ * LockTraceRecorder recorder = new LockTraceRecorder(65536);
+ * MetaLockAspect metaLockAspect = new MetaLockAspect(MetaLockAspect.defaultListener(), recorder);
+ * ...
+ * recorder.writeTo(writer);
+ * </pre>
+ *
+ * @author Xantorohara
+ */
+public final class LockTraceRecorder implements LockListener {
+
+    private static final byte ACQUIRE = 0;
+    private static final byte ACQUIRED = 1;
+    private static final byte TIMEOUT = 2;
+    private static final byte RELEASED = 3;
+
+    private static final int MAX_CAPACITY = Integer.highestOneBit(Integer.MAX_VALUE);
+
+    private static final int THREADS_PID = 1;
+    private static final int KEYS_PID = 2;
+
+    private static final long NANOS_PER_MICRO = 1000;
+
+    private final int mask;
+
+    private final long[] times;
+
+    private final long[] threads;
+
+    private final String[] keys;
+
+    private final byte[] types;
+
+    /**
+     * Sequence number + 1 of the event in the slot, 0 while the slot is being written.
+     * Stamps are the sequence locks of the slots: the writer zeroes the stamp by getAndSet(),
+     * whose volatile read keeps the writes of the fields after it, and publishes the stamp by lazySet(),
+     * which keeps the writes before it. The reader checks the stamp before reading the fields
+     * and re-checks it by compareAndSet(), whose volatile write keeps the reads of the fields before it.
+     */
+    private final AtomicLongArray stamps;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Events before this sequence number are cleared.
+     */
+    private volatile long cleared;
+
+    /**
+     * Create recorder that keeps the last events.
+     *
+     * @param maxEvents - capacity of the ring buffer, rounded up to the power of two
+     */
+    public LockTraceRecorder(final int maxEvents) {
+        if (maxEvents < 1 || maxEvents > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Capacity must be in [1, " + MAX_CAPACITY + "]: " + maxEvents);
+        }
+        int capacity = Integer.highestOneBit(maxEvents);
+        if (capacity < maxEvents) {
+            capacity <<= 1;
+        }
+        this.mask = capacity - 1;
+        this.times = new long[capacity];
+        this.threads = new long[capacity];
+        this.keys = new String[capacity];
+        this.types = new byte[capacity];
+        this.stamps = new AtomicLongArray(capacity);
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    @Override
+    public void onAcquire(final long invocationId, final String lockName) {
+        record(ACQUIRE, lockName);
+    }
+
+    @Override
+    public void onAcquired(final long invocationId, final String lockName) {
+        record(ACQUIRED, lockName);
+    }
+
+    @Override
+    public void onTimeout(final long invocationId, final String lockName) {
+        record(TIMEOUT, lockName);
+    }
+
+    @Override
+    public void onRelease(final long invocationId, final String lockName) {
+        record(RELEASED, lockName);
+    }
+
+    private void record(final byte type, final String lockName) {
+        long seq = sequence.getAndIncrement();
+        int slot = (int) seq & mask;
+        stamps.getAndSet(slot, 0);
+        times[slot] = System.nanoTime();
+        threads[slot] = Thread.currentThread().getId();
+        keys[slot] = lockName;
+        types[slot] = type;
+        stamps.lazySet(slot, seq + 1);
+    }
+
+    /**
+     * Forget all recorded events.
+     */
+    public void clear() {
+        cleared = sequence.get();
+    }
+
+    /**
+     * Export recorded events in the Chrome Trace Event format.
+     */
+    public String toJson() {
+        StringWriter writer = new StringWriter();
+        try {
+            writeTo(writer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Export recorded events in the Chrome Trace Event format, one trace event per line.
+     * Events overwritten during the export are skipped, waits and holds that are not finished yet
+     * are exported up to the last event.
+     */
+    public void writeTo(final Writer writer) throws IOException {
+        Snapshot snapshot = snapshot();
+        Export export = new Export(writer, snapshot.first());
+        writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+        export.process(THREADS_PID, "Threads");
+        export.process(KEYS_PID, "Keys");
+
+        Map<String, ArrayDeque<Long>> waits = new HashMap<>();
+        Map<String, ArrayDeque<Long>> holds = new HashMap<>();
+        for (int i = 0; i < snapshot.size; i++) {
+            long thread = snapshot.threads[i];
+            String key = snapshot.keys[i];
+            long time = snapshot.times[i];
+            String pair = thread + " " + key;
+            switch (snapshot.types[i]) {
+                case ACQUIRE:
+                    waits.computeIfAbsent(pair, p -> new ArrayDeque<>()).push(time);
+                    break;
+                case ACQUIRED:
+                    Long waitStart = pop(waits, pair);
+                    if (waitStart != null) {
+                        export.slice(THREADS_PID, thread, "Wait " + key, "wait", waitStart, time);
+                    }
+                    holds.computeIfAbsent(pair, p -> new ArrayDeque<>()).push(time);
+                    break;
+                case TIMEOUT:
+                    Long timeoutStart = pop(waits, pair);
+                    if (timeoutStart != null) {
+                        export.slice(THREADS_PID, thread, "Wait " + key, "wait", timeoutStart, time);
+                    }
+                    export.instant(thread, "Timeout " + key, time);
+                    break;
+                default:
+                    Long holdStart = pop(holds, pair);
+                    if (holdStart != null) {
+                        export.hold(thread, key, holdStart, time);
+                    }
+                    break;
+            }
+        }
+
+        long last = snapshot.last();
+        for (Map.Entry<String, ArrayDeque<Long>> entry : waits.entrySet()) {
+            for (Long start : entry.getValue()) {
+                String pair = entry.getKey();
+                int space = pair.indexOf(' ');
+                export.slice(THREADS_PID, Long.parseLong(pair.substring(0, space)),
+                        "Wait " + pair.substring(space + 1), "wait", start, last);
+            }
+        }
+        for (Map.Entry<String, ArrayDeque<Long>> entry : holds.entrySet()) {
+            for (Long start : entry.getValue()) {
+                String pair = entry.getKey();
+                int space = pair.indexOf(' ');
+                export.hold(Long.parseLong(pair.substring(0, space)), pair.substring(space + 1), start, last);
+            }
+        }
+
+        export.names();
+        writer.write("\n]}\n");
+        writer.flush();
+    }
+
+    private static Long pop(final Map<String, ArrayDeque<Long>> starts, final String pair) {
+        ArrayDeque<Long> deque = starts.get(pair);
+        if (deque == null) {
+            return null;
+        }
+        Long start = deque.pop();
+        if (deque.isEmpty()) {
+            starts.remove(pair);
+        }
+        return start;
+    }
+
+    /**
+     * Copy consistent events from the ring buffer in order of their sequence numbers.
+     */
+    private Snapshot snapshot() {
+        long end = sequence.get();
+        long start = Math.max(cleared, end - getCapacity());
+        Snapshot snapshot = new Snapshot((int) (end - start));
+        for (long seq = start; seq < end; seq++) {
+            int slot = (int) seq & mask;
+            long stamp = stamps.get(slot);
+            if (stamp != seq + 1) {
+                continue;
+            }
+            int i = snapshot.size;
+            snapshot.times[i] = times[slot];
+            snapshot.threads[i] = threads[slot];
+            snapshot.keys[i] = keys[slot];
+            snapshot.types[i] = types[slot];
+            if (stamps.compareAndSet(slot, stamp, stamp)) {
+                snapshot.size++;
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Events copied from the ring buffer.
+     */
+    private static final class Snapshot {
+        private final long[] times;
+        private final long[] threads;
+        private final String[] keys;
+        private final byte[] types;
+        private int size;
+
+        Snapshot(final int length) {
+            this.times = new long[length];
+            this.threads = new long[length];
+            this.keys = new String[length];
+            this.types = new byte[length];
+        }
+
+        long first() {
+            long first = Long.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                first = Math.min(first, times[i]);
+            }
+            return first;
+        }
+
+        long last() {
+            long last = Long.MIN_VALUE;
+            for (int i = 0; i < size; i++) {
+                last = Math.max(last, times[i]);
+            }
+            return last;
+        }
+    }
+
+    /**
+     * Writer of the trace events, it assigns tracks to the keys and names to the tracks.
+     */
+    private static final class Export {
+        private final Writer writer;
+        private final long origin;
+        private final Map<String, Integer> keyTracks = new LinkedHashMap<>();
+        private final Map<Long, String> threadNames = new HashMap<>();
+        private final Map<Long, Boolean> threadTracks = new LinkedHashMap<>();
+        private boolean first = true;
+
+        Export(final Writer traceWriter, final long originNanos) {
+            this.writer = traceWriter;
+            this.origin = originNanos;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                threadNames.put(thread.getId(), thread.getName());
+            }
+        }
+
+        void process(final int pid, final String name) throws IOException {
+            event("{\"ph\":\"M\",\"pid\":" + pid + ",\"name\":\"process_name\",\"args\":{\"name\":"
+                    + quote(name) + "}}");
+        }
+
+        void slice(final int pid, final long tid, final String name, final String category,
+                   final long start, final long end) throws IOException {
+            if (pid == THREADS_PID) {
+                threadTracks.put(tid, Boolean.TRUE);
+            }
+            event("{\"ph\":\"X\",\"pid\":" + pid + ",\"tid\":" + tid + ",\"name\":" + quote(name)
+                    + ",\"cat\":\"" + category + "\",\"ts\":" + micros(start - origin)
+                    + ",\"dur\":" + micros(end - start) + "}");
+        }
+
+        void instant(final long thread, final String name, final long time) throws IOException {
+            threadTracks.put(thread, Boolean.TRUE);
+            event("{\"ph\":\"i\",\"s\":\"t\",\"pid\":" + THREADS_PID + ",\"tid\":" + thread
+                    + ",\"name\":" + quote(name) + ",\"cat\":\"timeout\",\"ts\":" + micros(time - origin) + "}");
+        }
+
+        void hold(final long thread, final String key, final long start, final long end) throws IOException {
+            slice(THREADS_PID, thread, "Hold " + key, "hold", start, end);
+            Integer track = keyTracks.get(key);
+            if (track == null) {
+                track = keyTracks.size() + 1;
+                keyTracks.put(key, track);
+            }
+            slice(KEYS_PID, track, threadName(thread), "hold", start, end);
+        }
+
+        /**
+         * Names of the tracks.
+         */
+        void names() throws IOException {
+            for (Long thread : threadTracks.keySet()) {
+                threadName(THREADS_PID, thread, threadName(thread));
+            }
+            for (Map.Entry<String, Integer> track : keyTracks.entrySet()) {
+                threadName(KEYS_PID, track.getValue(), track.getKey());
+            }
+        }
+
+        private void threadName(final int pid, final long tid, final String name) throws IOException {
+            event("{\"ph\":\"M\",\"pid\":" + pid + ",\"tid\":" + tid + ",\"name\":\"thread_name\",\"args\":{\"name\":"
+                    + quote(name) + "}}");
+        }
+
+        private String threadName(final long thread) {
+            String name = threadNames.get(thread);
+            if (name == null) {
+                return "Thread " + thread;
+            }
+            return name;
+        }
+
+        private void event(final String json) throws IOException {
+            if (!first) {
+                writer.write(",\n");
+            }
+            first = false;
+            writer.write(json);
+        }
+
+        private static String micros(final long nanos) {
+            return String.format("%d.%03d", nanos / NANOS_PER_MICRO, nanos % NANOS_PER_MICRO);
+        }
+
+        private static String quote(final String value) {
+            StringBuilder quoted = new StringBuilder().append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    quoted.append('\\').append(c);
+                } else if (c < ' ') {
+                    quoted.append(String.format("\\u%04x", (int) c));
+                } else {
+                    quoted.append(c);
+                }
+            }
+            return quoted.append('"').toString();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package io.github.xantorohara.metalock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watchdog that periodically scans locks held via @MetaLock and reports
+ * those which are held longer than the threshold: the key, the owner thread with its stack
+ * and the number of waiters. Optionally it interrupts the owner thread.
+ * <p/>
+ * It works from the acquisition timestamps stored in the locks storage,
+ * so the wrapped methods don't pay for any timers.
+ * Each hold is reported only once.
+ * <p/>
+ * If the aspect has the HotKeyTracker, the watchdog also logs the most contended keys
+ * once per the hot keys period.
+ * <p/>
+ * Spring bean example:
+ * <pre>
+ * &#64;Bean
+ * public LockWatchdog getLockWatchdog(MetaLockAspect metaLockAspect) {
+ *     LockWatchdog watchdog = new LockWatchdog(metaLockAspect);
+ *     watchdog.setThreshold("Metadata", 5000);
+ *     return watchdog;
+ * }
+ * </pre>
+ *
+ * @author Xantorohara
+ */
+public class LockWatchdog implements Runnable, InitializingBean, DisposableBean {
+    private static final Logger LOG = LoggerFactory.getLogger(LockWatchdog.class);
+
+    private static final long DEFAULT_PERIOD = 1000;
+    private static final long DEFAULT_THRESHOLD = 30000;
+    private static final long DEFAULT_HOT_KEYS_PERIOD = 60000;
+
+    private final MetaLockAspect metaLockAspect;
+
+    /**
+     * Thresholds in milliseconds by lock names.
+     */
+    private final Map<String, Long> thresholds = new ConcurrentHashMap<>();
+
+    private volatile long defaultThreshold = DEFAULT_THRESHOLD;
+    private volatile boolean interruptOwner;
+    private volatile long hotKeysPeriod = DEFAULT_HOT_KEYS_PERIOD;
+
+    /**
+     * System.nanoTime() of the last hot keys report, used only by the watchdog thread.
+     */
+    private long hotKeysReportedAt = System.nanoTime();
+    private long period = DEFAULT_PERIOD;
+
+    private ScheduledExecutorService scheduler;
+
+    public LockWatchdog(final MetaLockAspect aspect) {
+        this.metaLockAspect = aspect;
+    }
+
+    /**
+     * Period of scanning in milliseconds, 1 second by default.
+     * It is applied on start.
+     */
+    public final void setPeriod(final long periodMillis) {
+        this.period = periodMillis;
+    }
+
+    /**
+     * Threshold in milliseconds for the locks without their own threshold, 30 seconds by default.
+     * Zero disables the watching of such locks.
+     */
+    public final void setDefaultThreshold(final long thresholdMillis) {
+        this.defaultThreshold = thresholdMillis;
+    }
+
+    /**
+     * Threshold in milliseconds for the locks with the given name (name from the @MetaLock annotation).
+     * Zero disables the watching of such locks.
+     */
+    public final void setThreshold(final String name, final long thresholdMillis) {
+        thresholds.put(name, thresholdMillis);
+    }
+
+    /**
+     * Thresholds in milliseconds by lock names.
+     */
+    public final void setThresholds(final Map<String, Long> thresholdsByName) {
+        thresholds.putAll(thresholdsByName);
+    }
+
+    /**
+     * Interrupt the owner thread when its hold exceeds the threshold.
+     * The owner is interrupted only while it still holds the reported lock.
+     */
+    public final void setInterruptOwner(final boolean interrupt) {
+        this.interruptOwner = interrupt;
+    }
+
+    /**
+     * Period in milliseconds of logging the hot keys (see HotKeyTracker), 1 minute by default.
+     * Zero disables the logging.
+     */
+    public final void setHotKeysPeriod(final long periodMillis) {
+        this.hotKeysPeriod = periodMillis;
+    }
+
+    /**
+     * Start scanning in the background daemon thread.
+     */
+    public final synchronized void start() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metalock-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop scanning.
+     */
+    public final synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    @Override
+    public final void afterPropertiesSet() {
+        start();
+    }
+
+    @Override
+    public final void destroy() {
+        stop();
+    }
+
+    /**
+     * Scan held locks once.
+     */
+    @Override
+    public final void run() {
+        try {
+            long now = System.nanoTime();
+            for (LockRegistry registry : metaLockAspect.getRegistries()) {
+                for (Map.Entry<String, ReservedLock> entry : registry.getLocks().entrySet()) {
+                    check(registry, entry.getKey(), entry.getValue(), now);
+                }
+            }
+            reportHotKeys(now);
+        } catch (RuntimeException e) {
+            LOG.error("Lock watchdog failed", e);
+        }
+    }
+
+    private void check(final LockRegistry registry, final String lockName, final ReservedLock lock,
+                       final long now) {
+        long acquiredAt = lock.getAcquiredAt();
+        if (acquiredAt == 0 || acquiredAt == lock.getReportedAt()) {
+            return;
+        }
+
+        long threshold = thresholds.getOrDefault(MetaLockAspect.getName(lockName), defaultThreshold);
+        long heldMillis = TimeUnit.NANOSECONDS.toMillis(now - acquiredAt);
+        if (threshold <= 0 || heldMillis < threshold) {
+            return;
+        }
+
+        // The lock could be released and recycled for another key while it was checked
+        Thread owner = lock.getOwnerThread();
+        if (owner == null || acquiredAt != lock.getAcquiredAt() || registry.getLocks().get(lockName) != lock) {
+            return;
+        }
+        lock.setReportedAt(acquiredAt);
+
+        OwnerStackTrace stackTrace = new OwnerStackTrace(owner);
+        LOG.warn("Lock {} is held by the thread {} for {} ms, waiters: {}",
+                lockName, owner.getName(), heldMillis, lock.getWaiters(), stackTrace);
+
+        if (interruptOwner && lock.interruptOwner(acquiredAt)) {
+            LOG.warn("Interrupted the thread {}", owner.getName());
+        }
+    }
+
+    private void reportHotKeys(final long now) {
+        HotKeyTracker tracker = metaLockAspect.getHotKeyTracker();
+        long periodMillis = hotKeysPeriod;
+        if (tracker == null || periodMillis <= 0
+                || TimeUnit.NANOSECONDS.toMillis(now - hotKeysReportedAt) < periodMillis) {
+            return;
+        }
+        hotKeysReportedAt = now;
+
+        List<HotKeyTracker.HotKey> hotKeys = tracker.getHotKeys();
+        if (!hotKeys.isEmpty()) {
+            LOG.info("Hot keys: {}", hotKeys);
+        }
+    }
+
+    /**
+     * Stack trace of the lock owner thread to log.
+     */
+    private static final class OwnerStackTrace extends Throwable {
+        OwnerStackTrace(final Thread owner) {
+            super("Stack trace of the thread " + owner.getName(), null, false, true);
+            setStackTrace(owner.getStackTrace());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package io.github.xantorohara.metalock;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lock waits that cooperate with the ForkJoinPool.
+ * <p/>
+ * When the waiting thread is a ForkJoin worker (parallel streams, async methods of the CompletableFuture),
+ * the wait goes through ForkJoinPool.managedBlock(), so the pool can activate a spare thread
+ * instead of losing its parallelism. Other threads wait as usual.
+ *
+ * @author Xantorohara
+ */
+final class ManagedBlocking {
+
+    private ManagedBlocking() {
+    }
+
+    /**
+     * Lock the lock, the ForkJoin worker doesn't block the pool if the lock is available.
+     */
+    static void lock(final ReentrantLock lock) {
+        if (!(Thread.currentThread() instanceof ForkJoinWorkerThread)) {
+            lock.lock();
+            return;
+        }
+        LockBlocker blocker = new LockBlocker(lock);
+        managedBlock(blocker);
+        if (!blocker.locked) {
+            lock.lock();
+        }
+    }
+
+    /**
+     * Park once like LockSupport.park() or LockSupport.parkNanos().
+     *
+     * @param parkBlocker - object responsible for the thread parking
+     * @param limited     - whether to park for the given time
+     * @param nanos       - maximum time to park if limited
+     */
+    static void park(final Object parkBlocker, final boolean limited, final long nanos) {
+        if (Thread.currentThread() instanceof ForkJoinWorkerThread) {
+            managedBlock(new ParkBlocker(parkBlocker, limited, nanos));
+        } else {
+            parkNow(parkBlocker, limited, nanos);
+        }
+    }
+
+    private static void parkNow(final Object parkBlocker, final boolean limited, final long nanos) {
+        if (limited) {
+            LockSupport.parkNanos(parkBlocker, nanos);
+        } else {
+            LockSupport.park(parkBlocker);
+        }
+    }
+
+    private static void managedBlock(final ForkJoinPool.ManagedBlocker blocker) {
+        try {
+            ForkJoinPool.managedBlock(blocker);
+        } catch (InterruptedException e) {
+            // Blockers never throw it, keep the interrupt status just in case
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Blocker that locks the lock, fair locks are not acquired out of turn.
+     */
+    private static final class LockBlocker implements ForkJoinPool.ManagedBlocker {
+        private final ReentrantLock lock;
+        private boolean locked;
+
+        LockBlocker(final ReentrantLock blockingLock) {
+            this.lock = blockingLock;
+        }
+
+        @Override
+        public boolean block() {
+            lock.lock();
+            locked = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            if (!locked && !(lock.isFair() && lock.hasQueuedThreads())) {
+                locked = lock.tryLock();
+            }
+            return locked;
+        }
+    }
+
+    /**
+     * Blocker that parks once.
+     */
+    private static final class ParkBlocker implements ForkJoinPool.ManagedBlocker {
+        private final Object parkBlocker;
+        private final boolean limited;
+        private final long nanos;
+        private boolean parked;
+
+        ParkBlocker(final Object blocker, final boolean parkLimited, final long parkNanos) {
+            this.parkBlocker = blocker;
+            this.limited = parkLimited;
+            this.nanos = parkNanos;
+        }
+
+        @Override
+        public boolean block() {
+            parkNow(parkBlocker, limited, nanos);
+            parked = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return parked;
+        }
+    }
+}
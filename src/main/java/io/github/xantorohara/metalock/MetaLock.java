@@ -30,4 +30,84 @@ public @interface MetaLock {
      * or {"firstName", "lastName"}
      */
     String[] param();
+
+    /**
+     * Maximum number of threads allowed to wait for the lock.
+     * If the lock already has this number of waiters then the caller
+     * is rejected immediately with the LockRejectedException.
+     * Zero (default) means unlimited.
+     */
+    int maxWaiters() default 0;
+
+    /**
+     * Spin before parking while waiting for the lock.
+     * It makes sense for very short methods (a few microseconds), when parking
+     * and unparking of the waiter costs more than the method itself.
+     * Spin budget is tuned from the observed hold times of the locks with the same name,
+     * if they grow then waiters just park.
+     */
+    boolean spin() default false;
+
+    /**
+     * Order in which waiters acquire the lock, FIFO by default.
+     * All methods locked by the same name should use the same queue.
+     */
+    LockQueue queue() default LockQueue.FIFO;
+
+    /**
+     * Deadline in milliseconds from the method invocation, used by the LockQueue.DEADLINE queue
+     * and by the wait for the escalated name (see escalateAfter).
+     * The thread-local LockDeadline, if it is set and earlier, takes precedence.
+     * Zero (default) means no deadline.
+     */
+    long deadline() default 0;
+
+    /**
+     * Keep the lock in the compact table (see CompactLockTable) instead of the locks storage.
+     * It saves memory when a lot of keys are held at once, but such locks are always acquired in order
+     * and don't support maxWaiters, spin, queue, deadline, the LockWatchdog and the HotKeyTracker.
+     */
+    boolean compact() default false;
+
+    /**
+     * Execute the method in the caller thread with the lock (default)
+     * or asynchronously via the KeyedSerialExecutor without any locks, see LockDispatch.
+     * All methods locked by the same name should use the same dispatch.
+     */
+    LockDispatch dispatch() default LockDispatch.SYNC;
+
+    /**
+     * Escalate row keys to the name-level lock: when one thread holds more than this number of keys
+     * with the same name, it takes the exclusive lock of the whole name and releases the keys in the locks storage.
+     * Escalation happens only if no other thread holds or waits for keys with this name,
+     * until the escalated thread releases all its keys other threads wait for the name.
+     * This wait is limited by the deadline (and the LockDeadline) whatever the queue is,
+     * the expired waiter gets the LockTimeoutException.
+     * All methods locked by the same name should use the same value.
+     * Zero (default) means no escalation.
+     */
+    int escalateAfter() default 0;
+
+    /**
+     * How long the lock is held, LockScope.METHOD by default.
+     * With LockScope.TRANSACTION the release is deferred until the completion of the surrounding Spring transaction.
+     * The invocation is transaction-scoped if any of its MetaLocks is.
+     */
+    LockScope scope() default LockScope.METHOD;
+
+    /**
+     * Exclusive lock (default) or optimistic validation of the key version, see LockMode.
+     */
+    LockMode mode() default LockMode.EXCLUSIVE;
+
+    /**
+     * Number of repeated optimistic calls after conflicts before the fallback to the exclusive lock,
+     * used only with LockMode.OPTIMISTIC. The value of the first MetaLock of the method is used.
+     */
+    int retries() default DEFAULT_RETRIES;
+
+    /**
+     * Default number of repeated optimistic calls.
+     */
+    int DEFAULT_RETRIES = 3;
 }
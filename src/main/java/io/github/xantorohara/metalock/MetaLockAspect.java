@@ -8,12 +8,24 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.Ordered;
 import org.springframework.core.annotation.Order;
+import org.springframework.util.ClassUtils;
 
 import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -27,66 +39,575 @@ import java.util.concurrent.locks.ReentrantLock;
 public class MetaLockAspect {
     private static final Logger LOG = LoggerFactory.getLogger(MetaLockAspect.class);
 
-    private static final char SEPARATOR = '§';
+    static final char SEPARATOR = '§';
 
-    private static final String DEBUG_FORMAT = "ML{}U {}";
-    private static final String TRACE_FORMAT = "ML{}U {} {}";
+    /**
+     * Result of the optimistic invocation which has failed all attempts.
+     */
+    private static final Object CONFLICT = new Object();
 
     /**
-     * Serial number generator to log Before, After or Error states.
+     * Whether the optional spring-tx is present, see LockScope.TRANSACTION.
+     */
+    static final boolean TRANSACTIONS_PRESENT = ClassUtils.isPresent(
+            "org.springframework.transaction.support.TransactionSynchronizationManager",
+            MetaLockAspect.class.getClassLoader());
+
+    /**
+     * Serial number generator of the invocation ids, used only if the listener needs them.
      */
     private final AtomicLong serial = new AtomicLong(1000000);
 
     /**
-     * Locks storage.
+     * Listener of the lock lifecycle, resolved once.
      */
-    private final ConcurrentMap<String, ReservedLock> namedLocks = new ConcurrentHashMap<>();
+    private final LockListener listener;
+
+    /**
+     * Locks storage of the names without namespaces.
+     */
+    private final LockRegistry defaultRegistry = new LockRegistry(new LockNamespace(""));
+
+    /**
+     * Locks storages of the namespaces by lock names (names from the annotations).
+     */
+    private final ConcurrentMap<String, LockRegistry> registries = new ConcurrentHashMap<>();
 
     private final ReentrantLock synchronizer = new ReentrantLock();
 
+    /**
+     * Escalation gates by lock names (see MetaLock.escalateAfter()), guarded by the synchronizer.
+     */
+    private final Map<String, EscalationGate> gates = new HashMap<>();
+
+    /**
+     * Signalled when some escalated name is released.
+     */
+    private final Condition gateReleased = synchronizer.newCondition();
+
+    /**
+     * Storage of the compact locks, see MetaLock.compact().
+     */
+    private final CompactLockTable compactLocks = new CompactLockTable();
+
+    /**
+     * Annotated methods resolved to their annotations and key builders.
+     */
+    private final ConcurrentMap<Method, MetaLockHandle> handles = new ConcurrentHashMap<>();
+
+    /**
+     * Names of the resolved annotations (i.e. names in use) and the first annotation of each name,
+     * see useNames() and setNamespaces().
+     */
+    private final ConcurrentMap<String, MetaLock> usedNames = new ConcurrentHashMap<>();
+
+    /**
+     * Spin policies by lock names (names from the annotations).
+     */
+    private final ConcurrentMap<String, SpinPolicy> spinPolicies = new ConcurrentHashMap<>();
+
+    /**
+     * Locks held by the current thread.
+     * Nested acquisitions of the already held lock just increment its depth and skip the storage.
+     */
+    private final ThreadLocal<Map<String, HeldLock>> heldLocks = ThreadLocal.withInitial(HashMap::new);
+
+    private volatile AcquireStrategy acquireStrategy = AcquireStrategy.ORDERED;
+
+    private volatile HotKeyTracker hotKeyTracker;
+
+    private KeyedSerialExecutor keyedExecutor = new KeyedSerialExecutor(ForkJoinPool.commonPool());
+
+    private volatile LockBackend backend;
+
+    /**
+     * Create aspect with the default SLF4J listener,
+     * it logs if the "DEBUG" or "TRACE" level is enabled for the MetaLockAspect logger.
+     */
+    public MetaLockAspect() {
+        this(defaultListener());
+    }
+
+    /**
+     * Create aspect with the given listeners of the lock lifecycle, they replace the default listener,
+     * pass defaultListener() too to keep the logging.
+     *
+     * @param listeners - listeners, may be empty
+     */
+    public MetaLockAspect(final LockListener... listeners) {
+        this.listener = LockListeners.resolve(listeners);
+    }
+
+    /**
+     * Strategy to acquire several locks of one method, AcquireStrategy.ORDERED by default.
+     */
+    public final void setAcquireStrategy(final AcquireStrategy strategy) {
+        this.acquireStrategy = strategy;
+    }
+
+    /**
+     * Executor of the methods with LockDispatch.ASYNC, it uses the common ForkJoinPool by default.
+     */
+    public final void setKeyedExecutor(final KeyedSerialExecutor executor) {
+        this.keyedExecutor = executor;
+    }
+
+    /**
+     * Backend that makes keys exclusive across JVMs, null (local locks only) by default.
+     */
+    public final void setBackend(final LockBackend lockBackend) {
+        this.backend = lockBackend;
+    }
+
+    /**
+     * Tracker of the most contended keys, null (disabled) by default.
+     */
+    public final void setHotKeyTracker(final HotKeyTracker tracker) {
+        this.hotKeyTracker = tracker;
+    }
+
+    public final HotKeyTracker getHotKeyTracker() {
+        return hotKeyTracker;
+    }
+
+    /**
+     * Table of the compact locks, it can be used directly to hold the same keys without annotations:
+     * getCompactLocks().lock(CompactLockTable.fingerprint("Row§" + rowId)).
+     */
+    public final CompactLockTable getCompactLocks() {
+        return compactLocks;
+    }
+
+    /**
+     * Condition of the key held by the current thread, to wait for changes made by other holders of the same key:
+     * <pre>
+     * &#64;MetaLock(name = "Job", param = "jobId")
+     * public void awaitJob(String jobId) throws InterruptedException {
+     *     while (!isDone(jobId)) {
+     *         metaLockAspect.getCondition("Job", jobId).await(1, TimeUnit.SECONDS);
+     *     }
+     * }
+     * </pre>
+     * The awaiting thread releases the lock, but keeps the key reserved, so it is never evicted.
+     * Compact, escalated keys and keys with LockQueue.DEADLINE have no conditions.
+     * Conditions are not supported with the LockBackend: the awaiting thread would release only the local lock
+     * and keep the key in the backend, so holders from other JVMs could never change the state.
+     *
+     * @param name   - name of the lock
+     * @param params - values of the lock params in order of the method parameters
+     * @throws IllegalMonitorStateException if the key is not held by the current thread
+     * @throws IllegalStateException        if the backend is set
+     */
+    public final Condition getCondition(final String name, final Object... params) {
+        if (backend != null) {
+            throw new IllegalStateException("Conditions are not supported with the LockBackend");
+        }
+        StringBuilder lockName = new StringBuilder(name);
+        for (Object param : params) {
+            lockName.append(SEPARATOR).append(param);
+        }
+        HeldLock heldLock = heldLocks.get().get(lockName.toString());
+        if (heldLock == null || heldLock.lock == null) {
+            throw new IllegalMonitorStateException("Lock " + lockName + " is not held by the current thread");
+        }
+        return heldLock.lock.getCondition();
+    }
+
+    /**
+     * Register or reload namespaces, see LockNamespace.
+     * New namespaces must be registered before their names are used by any annotated method:
+     * invocations that have already chosen the default storage would not exclude the invocations
+     * that use the new one.
+     * <p/>
+     * The new storage is published before the used names are checked, and the method is resolved
+     * (its names are marked as used) before it chooses the storages, so either the invocation sees
+     * the new storage, or this method sees the name in use.
+     *
+     * @throws IllegalStateException if the name of the new namespace is already used
+     */
+    public final void setNamespaces(final Collection<LockNamespace> namespaces) {
+        for (LockNamespace namespace : namespaces) {
+            String name = namespace.getName();
+            LockRegistry registry = registries.get(name);
+            if (registry != null) {
+                registry.reload(namespace);
+                continue;
+            }
+            LockRegistry created = new LockRegistry(namespace);
+            registry = registries.putIfAbsent(name, created);
+            if (registry != null) {
+                registry.reload(namespace);
+            } else if (usedNames.containsKey(name)) {
+                registries.remove(name, created);
+                throw new IllegalStateException("Namespace " + name + " is registered after its name is used");
+            }
+        }
+    }
+
+    /**
+     * Policies of the registered namespaces.
+     */
+    public final List<LockNamespace> getNamespaces() {
+        List<LockNamespace> namespaces = new ArrayList<>();
+        for (LockRegistry registry : registries.values()) {
+            namespaces.add(registry.getPolicy().copy());
+        }
+        return namespaces;
+    }
+
+    /**
+     * Locks storage of the names without namespaces.
+     */
+    ConcurrentMap<String, ReservedLock> getNamedLocks() {
+        return defaultRegistry.getLocks();
+    }
+
+    /**
+     * All locks storages, they are used by the LockWatchdog to scan held locks.
+     */
+    List<LockRegistry> getRegistries() {
+        List<LockRegistry> all = new ArrayList<>(registries.size() + 1);
+        all.add(defaultRegistry);
+        all.addAll(registries.values());
+        return all;
+    }
+
+    /**
+     * Locks storage of the given lock name (name from the annotation).
+     */
+    private LockRegistry registryOf(final String name) {
+        if (registries.isEmpty()) {
+            return defaultRegistry;
+        }
+        return registries.getOrDefault(name, defaultRegistry);
+    }
+
+    private LockRegistry[] registriesOf(final MetaLock[] metaLocks) {
+        LockRegistry[] registriesOfKeys = new LockRegistry[metaLocks.length];
+        for (int i = 0; i < metaLocks.length; i++) {
+            registriesOfKeys[i] = registryOf(metaLocks[i].name());
+        }
+        return registriesOfKeys;
+    }
+
+    /**
+     * Switch to the stripe of the next lock, the pass over the storage holds at most one stripe at a time.
+     *
+     * @return the held stripe
+     */
+    private static ReentrantLock switchStripe(final ReentrantLock held, final ReentrantLock next) {
+        if (held != next) {
+            if (held != null) {
+                held.unlock();
+            }
+            next.lock();
+        }
+        return next;
+    }
+
+    /**
+     * Name of the lock is the part of the lock key before the first separator.
+     */
+    static String getName(final String lockName) {
+        int separator = lockName.indexOf(SEPARATOR);
+        if (separator < 0) {
+            return lockName;
+        }
+        return lockName.substring(0, separator);
+    }
+
+    /**
+     * Listener of the aspect created without listeners: SLF4J logging via the MetaLockAspect logger.
+     */
+    public static LockListener defaultListener() {
+        return new Slf4jLockListener(LOG, "ML");
+    }
+
     @Around("@annotation(io.github.xantorohara.metalock.MetaLock)||"
             + "@annotation(io.github.xantorohara.metalock.MetaLocks)")
     public final Object lockAround(final ProceedingJoinPoint pjp) throws Throwable {
-        long unique = serial.incrementAndGet();
+        long unique = 0;
+        if (listener.needsInvocationId()) {
+            unique = serial.incrementAndGet();
+        }
 
         MethodSignature methodSignature = (MethodSignature) pjp.getSignature();
         Method method = methodSignature.getMethod();
         String methodName = methodSignature.toShortString();
-        String[] parameterNames = methodSignature.getParameterNames();
 
-        LOG.debug(DEBUG_FORMAT, unique, methodName);
+        listener.onInvoke(unique, methodName);
 
-        MetaLock[] metaLocks;
-        if (method.isAnnotationPresent(MetaLocks.class)) {
-            MetaLocks metaLocksAnnotation = method.getAnnotation(MetaLocks.class);
-            metaLocks = metaLocksAnnotation.value();
-        } else {
-            metaLocks = new MetaLock[]{method.getAnnotation(MetaLock.class)};
+        MetaLockHandle handle = handles.get(method);
+        if (handle == null) {
+            handle = handles.computeIfAbsent(method, m -> {
+                MetaLockHandle resolved = resolve(m, methodSignature.getParameterNames());
+                useNames(m, resolved.metaLocks);
+                return resolved;
+            });
         }
 
-        Object[] args = pjp.getArgs();
+        MetaLock[] metaLocks = handle.metaLocks.clone();
+        String[] lockNames = handle.keys.lockNames(pjp.getArgs());
 
-        String[] lockNames = new String[metaLocks.length];
+        if (handle.async) {
+            return dispatch(pjp, method, lockNames[0], unique);
+        }
 
-        for (int i = 0; i < metaLocks.length; i++) {
-            MetaLock metaLock = metaLocks[i];
-            lockNames[i] = getLockName(metaLock.name(), metaLock.param(), parameterNames, args);
+        sortLockNames(lockNames, metaLocks);
+
+        OptimisticKeys optimisticKeys = null;
+        if (handle.optimistic) {
+            optimisticKeys = new OptimisticKeys(lockNames, registriesOf(metaLocks));
+            Object result = proceedOptimistic(pjp, optimisticKeys, metaLocks[0].retries() + 1, unique);
+            if (result != CONFLICT) {
+                return result;
+            }
+            LOG.debug("Optimistic attempts of {} failed, falling back to the exclusive lock", methodName);
+        }
+
+        if (handle.transactional && !handle.openTransactionReported && TransactionScope.isTransactionActive()) {
+            handle.openTransactionReported = true;
+            LOG.warn("{} locks transaction-scoped keys inside the already open transaction, "
+                    + "the data it has read before the call may be stale", methodName);
+        }
+
+        if (acquireStrategy == AcquireStrategy.ALL_OR_NOTHING && lockNames.length > 1 && !isOrderedOnly(metaLocks)) {
+            lockAllOrNothing(lockNames, metaLocks, methodName, unique);
+        } else {
+            lock(lockNames, metaLocks, methodName, unique);
         }
 
-        Arrays.sort(lockNames);
-        lock(lockNames, unique);
+        LockBackend remote = backend;
+        if (remote != null) {
+            try {
+                remote.lock(lockNames);
+            } catch (RuntimeException e) {
+                unlock(lockNames, metaLocks, unique);
+                throw e;
+            }
+        }
 
+        if (optimisticKeys != null) {
+            optimisticKeys.enterExclusive();
+        }
+        Object holdEvent = LockEvents.beginHold();
+        String outcome = LockEvents.FAILED;
         try {
-            LOG.debug(DEBUG_FORMAT, unique, "Before");
+            listener.onProceed(unique);
             Object result = pjp.proceed();
-            LOG.debug(DEBUG_FORMAT, unique, "After");
+            listener.onComplete(unique);
+            outcome = LockEvents.COMPLETED;
             return result;
         } catch (Throwable e) {
-            LOG.debug(DEBUG_FORMAT, unique, "Error");
+            listener.onError(unique, e);
             throw e;
         } finally {
-            unlock(lockNames, unique);
+            if (optimisticKeys != null) {
+                optimisticKeys.exitExclusive();
+            }
+            if (handle.transactional) {
+                releaseAfterCompletion(holdEvent, lockNames, metaLocks, methodName, outcome, unique, remote);
+            } else {
+                release(holdEvent, lockNames, metaLocks, methodName, outcome, unique, remote);
+            }
+        }
+    }
+
+    /**
+     * Call the method without locks while versions of its keys don't change, see LockMode.OPTIMISTIC.
+     * The exception of the call is thrown only if there was no conflict, otherwise the call is repeated.
+     *
+     * @param attempts - maximum number of calls
+     * @return result of the method, or CONFLICT if all attempts have failed
+     */
+    private Object proceedOptimistic(final ProceedingJoinPoint pjp, final OptimisticKeys keys,
+                                     final int attempts, final long unique) throws Throwable {
+        for (int attempt = 0; attempt < attempts; attempt++) {
+            if (!keys.read()) {
+                continue;
+            }
+            listener.onProceed(unique);
+            Object result;
+            try {
+                result = pjp.proceed();
+            } catch (Throwable e) {
+                if (!keys.unchanged()) {
+                    continue;
+                }
+                listener.onError(unique, e);
+                throw e;
+            }
+            if (keys.validate()) {
+                listener.onComplete(unique);
+                return result;
+            }
         }
+        return CONFLICT;
+    }
+
+    /**
+     * Release locks after completion of the current transaction, or right now if there is no transaction,
+     * see LockScope.TRANSACTION.
+     */
+    private void releaseAfterCompletion(final Object holdEvent, final String[] lockNames, final MetaLock[] metaLocks,
+                                        final String methodName, final String outcome, final long unique,
+                                        final LockBackend remote) {
+        Runnable release = () -> release(holdEvent, lockNames, metaLocks, methodName, outcome, unique, remote);
+        if (!TransactionScope.releaseAfterCompletion(release)) {
+            release.run();
+        }
+    }
+
+    /**
+     * Release keys in the backend (if any) and then the local locks.
+     * The failure of the backend is only logged, so it doesn't mask the result of the method,
+     * the server releases the keys of the lost connection anyway.
+     */
+    private void release(final Object holdEvent, final String[] lockNames, final MetaLock[] metaLocks,
+                         final String methodName, final String outcome, final long unique,
+                         final LockBackend remote) {
+        LockEvents.endHold(holdEvent, lockNames, methodName, outcome);
+        if (remote != null) {
+            try {
+                remote.unlock(lockNames);
+            } catch (RuntimeException e) {
+                LOG.error("Backend failed to unlock {} of {}", Arrays.toString(lockNames), methodName, e);
+            }
+        }
+        unlock(lockNames, metaLocks, unique);
+    }
+
+    /**
+     * Execute the method via the KeyedSerialExecutor, see LockDispatch.ASYNC.
+     *
+     * @return null for void methods, otherwise the future of the method result
+     */
+    private Object dispatch(final ProceedingJoinPoint pjp, final Method method, final String lockName,
+                            final long unique) {
+        boolean isVoid = method.getReturnType() == void.class;
+
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        keyedExecutor.submit(lockName, () -> proceedAsync(pjp, unique)).whenComplete((result, e) -> {
+            if (e != null) {
+                if (isVoid) {
+                    LOG.error("Async invocation of {} failed", method, e);
+                }
+                future.completeExceptionally(e);
+            } else if (result instanceof CompletionStage) {
+                ((CompletionStage<?>) result).whenComplete((value, error) -> {
+                    if (error == null) {
+                        future.complete(value);
+                    } else {
+                        future.completeExceptionally(error);
+                    }
+                });
+            } else {
+                future.complete(result);
+            }
+        });
+
+        if (isVoid) {
+            return null;
+        }
+        return future;
+    }
+
+    /**
+     * Call the method in the pool thread of the KeyedSerialExecutor.
+     */
+    private Object proceedAsync(final ProceedingJoinPoint pjp, final long unique) throws Exception {
+        listener.onProceed(unique);
+        try {
+            Object result = pjp.proceed();
+            listener.onComplete(unique);
+            return result;
+        } catch (Exception | Error e) {
+            listener.onError(unique, e);
+            throw e;
+        } catch (Throwable e) {
+            listener.onError(unique, e);
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+
+    /**
+     * Resolve annotations of the method and its key builder: the generated one (see MetaLockKeysProcessor)
+     * if it exists, otherwise the builder that matches the parameter names.
+     */
+    private static MetaLockHandle resolve(final Method method, final String[] parameterNames) {
+        MetaLock[] metaLocks = method.getAnnotationsByType(MetaLock.class);
+
+        LockKeyBuilder keys = getGeneratedKeys(method);
+        if (keys == null) {
+            keys = args -> {
+                String[] lockNames = new String[metaLocks.length];
+                for (int i = 0; i < metaLocks.length; i++) {
+                    lockNames[i] = getLockName(metaLocks[i].name(), metaLocks[i].param(), parameterNames, args);
+                }
+                return lockNames;
+            };
+        }
+        boolean transactional = false;
+        for (MetaLock metaLock : metaLocks) {
+            transactional |= metaLock.scope() == LockScope.TRANSACTION;
+        }
+        if (transactional && !TRANSACTIONS_PRESENT) {
+            throw new IllegalStateException("Transaction scope requires spring-tx: " + method);
+        }
+
+        int optimistic = 0;
+        for (MetaLock metaLock : metaLocks) {
+            if (metaLock.mode() == LockMode.OPTIMISTIC) {
+                optimistic++;
+            }
+        }
+        if (optimistic > 0 && (optimistic < metaLocks.length || transactional)) {
+            throw new IllegalStateException("Optimistic mode requires all @MetaLocks of the method to be optimistic"
+                    + " and doesn't support the transaction scope: " + method);
+        }
+
+        int async = 0;
+        for (MetaLock metaLock : metaLocks) {
+            if (metaLock.dispatch() == LockDispatch.ASYNC) {
+                async++;
+            }
+        }
+        Class<?> returnType = method.getReturnType();
+        if (async > 0 && (metaLocks.length != 1 || returnType != void.class
+                && !returnType.isAssignableFrom(CompletableFuture.class))) {
+            throw new IllegalStateException("Async dispatch requires one @MetaLock and void or future result: "
+                    + method);
+        }
+        return new MetaLockHandle(metaLocks, keys, transactional, optimistic > 0, async > 0);
+    }
+
+    private static LockKeyBuilder getGeneratedKeys(final Method method) {
+        Class<?> type = method.getDeclaringClass();
+        try {
+            Class<?> generated = Class.forName(type.getName() + MetaLockKeys.SUFFIX, true, type.getClassLoader());
+            MetaLockKeys metaLockKeys = (MetaLockKeys) generated.newInstance();
+            return metaLockKeys.get(getMethodKey(method));
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            LOG.warn("Can't use {}{}", type.getName(), MetaLockKeys.SUFFIX, e);
+            return null;
+        }
+    }
+
+    /**
+     * Method name with the parameter type names, e.g. "saveRecord(java.lang.String,int)".
+     */
+    static String getMethodKey(final Method method) {
+        StringBuilder key = new StringBuilder(method.getName()).append('(');
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) {
+                key.append(',');
+            }
+            key.append(parameterTypes[i].getTypeName());
+        }
+        return key.append(')').toString();
     }
 
     static String getLockName(final String metaLockName, final String[] metalockParam,
@@ -108,79 +629,703 @@ public class MetaLockAspect {
         return lockName.toString();
     }
 
+    /**
+     * Mark names of the resolved method as used, so namespaces can't be registered for them anymore.
+     * Keys of one name are stored either in the compact table or in the locks storage,
+     * so all annotations with the same name must agree on MetaLock.compact(),
+     * otherwise the same key could be locked in both storages by different methods.
+     * Optimistic calls validate only versions changed by other optimistic calls,
+     * so all annotations with the same name must agree on MetaLock.mode() too,
+     * otherwise an optimistic call would miss changes made under the exclusive lock.
+     */
+    private void useNames(final Method method, final MetaLock[] metaLocks) {
+        for (MetaLock metaLock : metaLocks) {
+            MetaLock first = usedNames.putIfAbsent(metaLock.name(), metaLock);
+            if (first == null) {
+                continue;
+            }
+            if (first.compact() != metaLock.compact()) {
+                throw new IllegalStateException("Compact and non-compact @MetaLocks can't share the name \""
+                        + metaLock.name() + "\": " + method);
+            }
+            if (first.mode() != metaLock.mode()) {
+                throw new IllegalStateException("@MetaLocks with different modes can't share the name \""
+                        + metaLock.name() + "\": " + method);
+            }
+        }
+    }
+
+    /**
+     * Sort lock names together with their annotations.
+     * There are only a few names per method, so the insertion sort is enough.
+     */
+    static void sortLockNames(final String[] lockNames, final MetaLock[] metaLocks) {
+        for (int i = 1; i < lockNames.length; i++) {
+            String lockName = lockNames[i];
+            MetaLock metaLock = metaLocks[i];
+            int j = i - 1;
+            while (j >= 0 && lockNames[j].compareTo(lockName) > 0) {
+                lockNames[j + 1] = lockNames[j];
+                metaLocks[j + 1] = metaLocks[j];
+                j--;
+            }
+            lockNames[j + 1] = lockName;
+            metaLocks[j + 1] = metaLock;
+        }
+    }
+
+    /**
+     * Compact, escalated and deadline-ordered locks are always acquired in order.
+     * Try-locks of the all-or-nothing strategy would barge past the waiters of the deadline queue.
+     */
+    private static boolean isOrderedOnly(final MetaLock[] metaLocks) {
+        for (MetaLock metaLock : metaLocks) {
+            if (metaLock.compact() || metaLock.escalateAfter() > 0 || metaLock.queue() == LockQueue.DEADLINE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Create or obtain named locks.
+     * All locks are reserved in one pass over the storage before any waiting.
+     * If some lock already has too many waiters, cancel the reservations
+     * and reject the invocation with the LockRejectedException.
+     * Then locks are acquired one by one in the sorted order.
+     * If the deadline expires while waiting for the lock (LockQueue.DEADLINE),
+     * release the obtained ones, cancel the rest reservations and throw the LockTimeoutException.
      */
-    private void lock(final String[] sortedLockNames, final long unique) {
-        for (String lockName : sortedLockNames) {
-            LOG.trace(TRACE_FORMAT, unique, "Locking", lockName);
-            ReservedLock lock;
+    private void lock(final String[] sortedLockNames, final MetaLock[] metaLocks, final String methodName,
+                      final long unique) {
+        Map<String, HeldLock> held = heldLocks.get();
+        long invokedAt = System.nanoTime();
+        int count = sortedLockNames.length;
 
-            synchronizer.lock();
-            try {
-                lock = namedLocks.computeIfAbsent(lockName, s -> new ReservedLock());
-                lock.reserve();
-            } finally {
-                synchronizer.unlock();
+        // Locks reserved by this invocation, null for compact, nested (or duplicated) and escalated keys
+        LockRegistry[] registriesOfKeys = registriesOf(metaLocks);
+        ReservedLock[] locks = new ReservedLock[count];
+        boolean[] reserved = new boolean[count];
+        boolean[] contended = new boolean[count];
+        boolean[] gated = new boolean[count];
+        boolean[] escalated = new boolean[count];
+
+        for (int i = 0; i < count; i++) {
+            String lockName = sortedLockNames[i];
+            MetaLock metaLock = metaLocks[i];
+            if (metaLock.compact() || held.containsKey(lockName)
+                    || i > 0 && lockName.equals(sortedLockNames[i - 1])) {
+                continue;
+            }
+            if (metaLock.escalateAfter() > 0) {
+                Object gateEvent = LockEvents.beginWait();
+                Long deadline = deadlineOf(registriesOfKeys[i].deadline(metaLock), invokedAt);
+                try {
+                    escalated[i] = enterGate(lockName, metaLock.name(), deadline);
+                } catch (LockTimeoutException e) {
+                    leaveGates(metaLocks, gated, 0);
+                    for (int j = 0; j <= i; j++) {
+                        listener.onAcquire(unique, sortedLockNames[j]);
+                    }
+                    LockEvents.endWait(gateEvent, lockName, methodName, LockEvents.EXPIRED);
+                    timeout(sortedLockNames, i + 1, unique);
+                    throw e;
+                }
+                gated[i] = true;
+            }
+            reserved[i] = !escalated[i];
+        }
+
+        Object rejectEvent = LockEvents.beginWait();
+        int rejected = reserve(sortedLockNames, metaLocks, reserved, registriesOfKeys, locks, contended);
+        if (rejected >= 0) {
+            String lockName = sortedLockNames[rejected];
+            leaveGates(metaLocks, gated, 0);
+            for (int i = 0; i <= rejected; i++) {
+                listener.onAcquire(unique, sortedLockNames[i]);
+            }
+            LockEvents.endWait(rejectEvent, lockName, methodName, LockEvents.REJECTED);
+            timeout(sortedLockNames, rejected + 1, unique);
+            throw new LockRejectedException(lockName, registriesOfKeys[rejected].maxWaiters(metaLocks[rejected]));
+        }
+
+        for (int i = 0; i < count; i++) {
+            String lockName = sortedLockNames[i];
+            MetaLock metaLock = metaLocks[i];
+            listener.onAcquire(unique, lockName);
+
+            if (metaLock.compact()) {
+                compactLocks.lock(CompactLockTable.fingerprint(lockName));
+                listener.onAcquired(unique, lockName);
+                continue;
+            }
+
+            if (escalated[i]) {
+                held.put(lockName, new HeldLock(null, null, true));
+                listener.onAcquired(unique, lockName);
+                continue;
+            }
+
+            ReservedLock lock = locks[i];
+            if (lock == null) {
+                held.get(lockName).depth++;
+                listener.onAcquired(unique, lockName);
+                continue;
+            }
+
+            Object waitEvent = LockEvents.beginWait();
+            HotKeyTracker tracker = hotKeyTracker;
+            long waitStart = 0;
+            if (tracker != null) {
+                waitStart = System.nanoTime();
+            }
+
+            if (!acquire(lock, metaLock, registriesOfKeys[i], invokedAt)) {
+                abandon(sortedLockNames, registriesOfKeys, locks, i);
+                leaveGates(metaLocks, gated, i);
+                LockEvents.endWait(waitEvent, lockName, methodName, LockEvents.EXPIRED);
+                listener.onTimeout(unique, lockName);
+                unlock(sortedLockNames, metaLocks, i, unique);
+                throw new LockTimeoutException(lockName);
+            }
+            held.put(lockName, new HeldLock(lock, registriesOfKeys[i], gated[i]));
+            if (gated[i]) {
+                escalate(metaLock.name(), metaLock.escalateAfter(), held);
+            }
+            if (contended[i] && tracker != null) {
+                tracker.record(lockName, System.nanoTime() - waitStart);
+            }
+            LockEvents.endWait(waitEvent, lockName, methodName, LockEvents.ACQUIRED);
+            listener.onAcquired(unique, lockName);
+        }
+    }
+
+    /**
+     * Reserve locks of the marked keys in one pass over the storage.
+     * If some lock already has too many waiters, cancel the reservations made by this pass.
+     *
+     * @param marked    - keys to reserve
+     * @param locks     - reserved locks are stored here
+     * @param contended - whether the lock was already reserved by other threads, may be null
+     * @return index of the rejected key, or -1 if all marked keys are reserved
+     */
+    private int reserve(final String[] sortedLockNames, final MetaLock[] metaLocks, final boolean[] marked,
+                        final LockRegistry[] registriesOfKeys, final ReservedLock[] locks,
+                        final boolean[] contended) {
+        int rejected = -1;
+        ReentrantLock stripe = null;
+        try {
+            for (int i = 0; i < sortedLockNames.length && rejected < 0; i++) {
+                if (!marked[i]) {
+                    continue;
+                }
+                LockRegistry registry = registriesOfKeys[i];
+                stripe = switchStripe(stripe, registry.stripe(sortedLockNames[i]));
+                ReservedLock lock = registry.get(sortedLockNames[i]);
+                if (lock.isOverloaded(registry.maxWaiters(metaLocks[i]))) {
+                    rejected = i;
+                } else {
+                    if (contended != null) {
+                        contended[i] = !lock.isFree();
+                    }
+                    lock.reserve();
+                    locks[i] = lock;
+                }
+            }
+        } finally {
+            if (stripe != null) {
+                stripe.unlock();
+            }
+        }
+        if (rejected >= 0) {
+            abandon(sortedLockNames, registriesOfKeys, locks, 0);
+        }
+        return rejected;
+    }
+
+    /**
+     * Create or obtain all named locks at once, see AcquireStrategy.ALL_OR_NOTHING.
+     * Locks are reserved first, if some of them already has too many waiters,
+     * cancel the reservations and reject the invocation with the LockRejectedException.
+     * If the deadline expires while waiting for the contended lock (LockQueue.DEADLINE),
+     * cancel the reservations and throw the LockTimeoutException.
+     */
+    private void lockAllOrNothing(final String[] sortedLockNames, final MetaLock[] metaLocks,
+                                  final String methodName, final long unique) {
+        Map<String, HeldLock> held = heldLocks.get();
+        long invokedAt = System.nanoTime();
+        Object waitEvent = LockEvents.beginWait();
+
+        // Locks to acquire, null for nested acquisitions of the already held (or duplicated) locks
+        LockRegistry[] registriesOfKeys = registriesOf(metaLocks);
+        ReservedLock[] locks = new ReservedLock[sortedLockNames.length];
+        boolean[] fresh = new boolean[sortedLockNames.length];
+
+        for (int i = 0; i < sortedLockNames.length; i++) {
+            String lockName = sortedLockNames[i];
+            listener.onAcquire(unique, lockName);
+            fresh[i] = !held.containsKey(lockName) && (i == 0 || !lockName.equals(sortedLockNames[i - 1]));
+        }
+
+        int rejected = reserve(sortedLockNames, metaLocks, fresh, registriesOfKeys, locks, null);
+        if (rejected >= 0) {
+            String lockName = sortedLockNames[rejected];
+            LockEvents.endWait(waitEvent, lockName, methodName, LockEvents.REJECTED);
+            timeout(sortedLockNames, sortedLockNames.length, unique);
+            throw new LockRejectedException(lockName, registriesOfKeys[rejected].maxWaiters(metaLocks[rejected]));
+        }
+
+        int[] contended = {-1};
+        int expired = AllOrNothing.acquire(locks.length,
+                i -> locks[i] == null || locks[i].tryAcquire(),
+                i -> {
+                    contended[0] = i;
+                    return acquire(locks[i], metaLocks[i], registriesOfKeys[i], invokedAt);
+                },
+                i -> {
+                    if (locks[i] != null) {
+                        locks[i].unlockHeld();
+                    }
+                });
+
+        if (expired >= 0) {
+            String lockName = sortedLockNames[expired];
+            LockEvents.endWait(waitEvent, lockName, methodName, LockEvents.EXPIRED);
+            timeout(sortedLockNames, sortedLockNames.length, unique);
+            abandon(sortedLockNames, registriesOfKeys, locks, 0);
+            throw new LockTimeoutException(lockName);
+        }
+
+        HotKeyTracker tracker = hotKeyTracker;
+        if (contended[0] >= 0 && tracker != null) {
+            tracker.record(sortedLockNames[contended[0]], System.nanoTime() - invokedAt);
+        }
+        LockEvents.endWait(waitEvent, sortedLockNames[Math.max(contended[0], 0)], methodName,
+                LockEvents.ACQUIRED);
+        for (int i = 0; i < sortedLockNames.length; i++) {
+            String lockName = sortedLockNames[i];
+            if (locks[i] == null) {
+                held.get(lockName).depth++;
+            } else {
+                held.put(lockName, new HeldLock(locks[i], registriesOfKeys[i], false));
             }
+            listener.onAcquired(unique, lockName);
+        }
+    }
+
+    /**
+     * Report the first "count" of sorted keys that were not acquired by the failed invocation
+     * in reverse order, so each of them gets onTimeout after its onAcquire.
+     */
+    private void timeout(final String[] sortedLockNames, final int count, final long unique) {
+        for (int i = count - 1; i >= 0; i--) {
+            listener.onTimeout(unique, sortedLockNames[i]);
+        }
+    }
+
+    /**
+     * Wait for the reserved lock according to its annotation: spin or not, FIFO or deadline queue.
+     *
+     * @return true if the lock was acquired, false if the deadline expired
+     */
+    private boolean acquire(final ReservedLock lock, final MetaLock metaLock, final LockRegistry registry,
+                            final long invokedAt) {
+        SpinPolicy spinPolicy = null;
+        if (metaLock.spin()) {
+            spinPolicy = spinPolicies.computeIfAbsent(metaLock.name(), s -> new SpinPolicy());
+        }
+
+        if (metaLock.queue() == LockQueue.DEADLINE) {
+            return acquireByDeadline(lock, spinPolicy, registry.deadline(metaLock), invokedAt);
+        }
+        lock.acquire(spinPolicy);
+        return true;
+    }
 
-            lock.lock();
-            LOG.trace(TRACE_FORMAT, unique, "Locked", lockName);
+    /**
+     * Acquire the lock in the earliest-deadline-first order.
+     * Deadline is the earliest of the thread-local LockDeadline and the deadline from the annotation
+     * (or from the namespace).
+     *
+     * @param lockDeadline - deadline in milliseconds from the invocation, 0 if there is no deadline
+     * @return true if the lock was acquired, false if the deadline expired
+     */
+    private static boolean acquireByDeadline(final ReservedLock lock, final SpinPolicy spinPolicy,
+                                             final long lockDeadline, final long invokedAt) {
+        Long deadline = deadlineOf(lockDeadline, invokedAt);
+        if (deadline == null) {
+            return lock.acquire(spinPolicy, false, 0);
+        }
+        return lock.acquire(spinPolicy, true, deadline);
+    }
+
+    /**
+     * Deadline (System.nanoTime()) of the wait for the key: the earliest of the thread-local LockDeadline
+     * and the deadline from the annotation (or from the namespace).
+     *
+     * @param lockDeadline - deadline in milliseconds from the invocation, 0 if there is no deadline
+     * @return null if there is no deadline
+     */
+    private static Long deadlineOf(final long lockDeadline, final long invokedAt) {
+        Long deadline = LockDeadline.get();
+        if (lockDeadline > 0) {
+            long annotationDeadline = invokedAt + TimeUnit.MILLISECONDS.toNanos(lockDeadline);
+            if (deadline == null || annotationDeadline - deadline < 0) {
+                deadline = annotationDeadline;
+            }
+        }
+        return deadline;
+    }
+
+    /**
+     * Cancel reservations of the locks (starting from the given index) which were not acquired
+     * in one pass over the storage, nulls are skipped.
+     */
+    private static void abandon(final String[] sortedLockNames, final LockRegistry[] registriesOfKeys,
+                                final ReservedLock[] locks, final int from) {
+        ReentrantLock stripe = null;
+        try {
+            for (int i = from; i < locks.length; i++) {
+                ReservedLock lock = locks[i];
+                if (lock != null) {
+                    stripe = switchStripe(stripe, registriesOfKeys[i].stripe(sortedLockNames[i]));
+                    lock.release();
+                    registriesOfKeys[i].recycle(sortedLockNames[i], lock);
+                }
+            }
+        } finally {
+            if (stripe != null) {
+                stripe.unlock();
+            }
         }
     }
 
     /**
      * Release sorted named locks in reverse order.
      */
-    private void unlock(final String[] sortedLockNames, final long unique) {
-        for (int i = sortedLockNames.length - 1; i >= 0; i--) {
+    private void unlock(final String[] sortedLockNames, final MetaLock[] metaLocks, final long unique) {
+        unlock(sortedLockNames, metaLocks, sortedLockNames.length, unique);
+    }
+
+    /**
+     * Release first "count" of sorted named locks in reverse order.
+     * Reservations of all released locks are cancelled in one pass over the storage.
+     * Compact keys are told by their annotations, the same key may be also held in the locks storage.
+     */
+    private void unlock(final String[] sortedLockNames, final MetaLock[] metaLocks, final int count,
+                        final long unique) {
+        Map<String, HeldLock> held = heldLocks.get();
+
+        // Locks released by this invocation, null for compact and nested keys
+        HeldLock[] released = new HeldLock[count];
+        boolean[] removed = new boolean[count];
+        boolean reserved = false;
+
+        for (int i = count - 1; i >= 0; i--) {
             String lockName = sortedLockNames[i];
+            listener.onRelease(unique, lockName);
 
-            LOG.trace(TRACE_FORMAT, unique, "Unlocking", lockName);
+            if (metaLocks[i].compact()) {
+                continue;
+            }
+            HeldLock heldLock = held.get(lockName);
+            if (--heldLock.depth == 0) {
+                held.remove(lockName);
+                released[i] = heldLock;
+                reserved |= heldLock.lock != null;
+            }
+        }
 
-            ReservedLock lock;
+        // Unlock before the reservations are cancelled, so the evicted locks are unlocked and can be reused
+        for (int i = count - 1; i >= 0; i--) {
+            if (metaLocks[i].compact()) {
+                compactLocks.unlock(CompactLockTable.fingerprint(sortedLockNames[i]));
+            } else if (released[i] != null && released[i].lock != null) {
+                released[i].lock.unlockHeld();
+            }
+        }
 
-            synchronizer.lock();
+        if (reserved) {
+            ReentrantLock stripe = null;
             try {
-                lock = namedLocks.get(lockName);
-                lock.release();
-                if (lock.isFree()) {
-                    namedLocks.remove(lockName);
-                    LOG.trace(TRACE_FORMAT, unique, "Removed", lockName);
+                for (int i = count - 1; i >= 0; i--) {
+                    if (released[i] != null && released[i].lock != null) {
+                        LockRegistry registry = released[i].registry;
+                        stripe = switchStripe(stripe, registry.stripe(sortedLockNames[i]));
+                        released[i].lock.release();
+                        removed[i] = registry.recycle(sortedLockNames[i], released[i].lock);
+                    }
                 }
             } finally {
-                synchronizer.unlock();
+                if (stripe != null) {
+                    stripe.unlock();
+                }
             }
+        }
 
-            lock.unlock();
-            LOG.trace(TRACE_FORMAT, unique, "Unlocked", lockName);
+        for (int i = count - 1; i >= 0; i--) {
+            String lockName = sortedLockNames[i];
+            if (released[i] != null && released[i].gated) {
+                leaveGate(getName(lockName));
+            }
+            if (removed[i]) {
+                listener.onRemoved(unique, lockName);
+            }
+            listener.onReleased(unique, lockName);
         }
     }
 
     /**
-     * Extension of the ReentrantLock with ability to "reserve"
-     * lock before the real locking.
-     * <p/>
-     * Actually this class itself is not thread-safe, but its methods
-     * reserve(), release() and isFree() are always called from the thread-safe environment.
+     * Leave gates of the keys (starting from the given index) which were not acquired.
      */
-    private static final class ReservedLock extends ReentrantLock {
-        private int count = 0;
+    private void leaveGates(final MetaLock[] metaLocks, final boolean[] gated, final int from) {
+        for (int i = from; i < gated.length; i++) {
+            if (gated[i]) {
+                leaveGate(metaLocks[i].name());
+            }
+        }
+    }
 
-        void reserve() {
-            count++;
+    /**
+     * Register the current thread as a holder of some key with the given name.
+     * Wait while the name is escalated by another thread, but not longer than the deadline of the key.
+     * Interrupts don't stop the wait, the interrupt status is restored.
+     *
+     * @param lockName - key to report in the LockTimeoutException
+     * @param deadline - System.nanoTime() deadline, null if there is no deadline
+     * @return true if the name is escalated by the current thread, so the key doesn't need the lock
+     * @throws LockTimeoutException if the deadline expired, the thread is not registered then
+     */
+    private boolean enterGate(final String lockName, final String name, final Long deadline) {
+        Thread current = Thread.currentThread();
+        boolean interrupted = false;
+        synchronizer.lock();
+        try {
+            EscalationGate gate = gates.computeIfAbsent(name, s -> new EscalationGate());
+            while (gate.owner != null && gate.owner != current) {
+                if (deadline == null) {
+                    gateReleased.awaitUninterruptibly();
+                } else {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new LockTimeoutException(lockName);
+                    }
+                    try {
+                        gateReleased.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                gate = gates.computeIfAbsent(name, s -> new EscalationGate());
+            }
+            gate.holders.merge(current, 1, Integer::sum);
+            return gate.owner == current;
+        } finally {
+            synchronizer.unlock();
+            if (interrupted) {
+                current.interrupt();
+            }
         }
+    }
 
-        void release() {
-            count--;
+    /**
+     * Unregister one key of the current thread, release the name when the escalated thread has no more keys.
+     */
+    private void leaveGate(final String name) {
+        Thread current = Thread.currentThread();
+        synchronizer.lock();
+        try {
+            EscalationGate gate = gates.get(name);
+            if (gate.holders.merge(current, -1, Integer::sum) > 0) {
+                return;
+            }
+            gate.holders.remove(current);
+            if (gate.owner == current) {
+                gate.owner = null;
+                gateReleased.signalAll();
+            }
+            if (gate.holders.isEmpty()) {
+                gates.remove(name);
+            }
+        } finally {
+            synchronizer.unlock();
         }
+    }
+
+    /**
+     * Escalate keys with the given name to the name-level lock if the current thread holds
+     * more than threshold of them and no other thread holds or waits for keys with this name.
+     * Locks of the keys are released and removed from the storage.
+     */
+    private void escalate(final String name, final int threshold, final Map<String, HeldLock> held) {
+        Thread current = Thread.currentThread();
+        List<ReservedLock> escalated = new ArrayList<>();
+
+        synchronizer.lock();
+        try {
+            EscalationGate gate = gates.get(name);
+            if (gate.owner != null || gate.holders.size() != 1 || gate.holders.get(current) <= threshold) {
+                return;
+            }
+            gate.owner = current;
 
-        boolean isFree() {
-            return count == 0;
+            for (Map.Entry<String, HeldLock> entry : held.entrySet()) {
+                HeldLock heldLock = entry.getValue();
+                if (heldLock.gated && heldLock.lock != null && name.equals(getName(entry.getKey()))) {
+                    ReentrantLock stripe = heldLock.registry.stripe(entry.getKey());
+                    stripe.lock();
+                    try {
+                        heldLock.lock.release();
+                        heldLock.registry.evict(entry.getKey(), heldLock.lock);
+                    } finally {
+                        stripe.unlock();
+                    }
+                    escalated.add(heldLock.lock);
+                    heldLock.lock = null;
+                }
+            }
+        } finally {
+            synchronizer.unlock();
+        }
+
+        for (ReservedLock lock : escalated) {
+            lock.unlockHeld();
+        }
+        LOG.debug("Escalated {} locks to the name {}", escalated.size(), name);
+    }
+
+    /**
+     * Method annotated as @MetaLock, resolved once: its annotations and the builder of its lock names.
+     * Annotations are sorted together with the lock names, so each invocation sorts a copy of them.
+     */
+    private static final class MetaLockHandle {
+        private final MetaLock[] metaLocks;
+        private final LockKeyBuilder keys;
+        private final boolean transactional;
+        private final boolean optimistic;
+        private final boolean async;
+
+        /**
+         * Whether the transaction-scoped method was already reported to be called inside the open transaction.
+         */
+        private volatile boolean openTransactionReported;
+
+        MetaLockHandle(final MetaLock[] methodMetaLocks, final LockKeyBuilder keyBuilder, final boolean txScope,
+                       final boolean optimisticMode, final boolean asyncDispatch) {
+            this.metaLocks = methodMetaLocks;
+            this.keys = keyBuilder;
+            this.transactional = txScope;
+            this.optimistic = optimisticMode;
+            this.async = asyncDispatch;
         }
+    }
+
+    /**
+     * Version slots of the keys of one optimistic invocation, keys that share a slot use it once.
+     */
+    private static final class OptimisticKeys {
+        private final VersionTable[] tables;
+        private final int[] slots;
+        private final long[] versions;
+        private int count;
 
-        ReservedLock() {
-            super(true);
+        OptimisticKeys(final String[] lockNames, final LockRegistry[] registriesOfKeys) {
+            tables = new VersionTable[lockNames.length];
+            slots = new int[lockNames.length];
+            versions = new long[lockNames.length];
+            for (int i = 0; i < lockNames.length; i++) {
+                VersionTable table = registriesOfKeys[i].versions();
+                int slot = table.slot(lockNames[i]);
+                if (!contains(table, slot)) {
+                    tables[count] = table;
+                    slots[count] = slot;
+                    count++;
+                }
+            }
         }
+
+        private boolean contains(final VersionTable table, final int slot) {
+            for (int i = 0; i < count; i++) {
+                if (tables[i] == table && slots[i] == slot) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Remember versions before the call.
+         *
+         * @return false if some key is held exclusively
+         */
+        boolean read() {
+            for (int i = 0; i < count; i++) {
+                versions[i] = tables[i].get(slots[i]);
+                if (VersionTable.isExclusive(versions[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean unchanged() {
+            for (int i = 0; i < count; i++) {
+                if (tables[i].get(slots[i]) != versions[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Increment versions that haven't changed since read().
+         *
+         * @return false if there was a conflicting call
+         */
+        boolean validate() {
+            for (int i = 0; i < count; i++) {
+                if (!tables[i].validate(slots[i], versions[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void enterExclusive() {
+            for (int i = 0; i < count; i++) {
+                tables[i].enterExclusive(slots[i]);
+            }
+        }
+
+        void exitExclusive() {
+            for (int i = 0; i < count; i++) {
+                tables[i].exitExclusive(slots[i]);
+            }
+        }
+    }
+
+    /**
+     * Lock held by the current thread together with the depth of nested acquisitions.
+     * The lock is null if its name is escalated.
+     */
+    private static final class HeldLock {
+        private ReservedLock lock;
+        private final LockRegistry registry;
+        private final boolean gated;
+        private int depth = 1;
+
+        HeldLock(final ReservedLock reservedLock, final LockRegistry lockRegistry, final boolean escalationGated) {
+            this.lock = reservedLock;
+            this.registry = lockRegistry;
+            this.gated = escalationGated;
+        }
+    }
+
+    /**
+     * Holders of keys with the same name and the thread that has escalated them to the name-level lock.
+     */
+    private static final class EscalationGate {
+        private final Map<Thread, Integer> holders = new HashMap<>();
+        private Thread owner;
     }
 }
@@ -0,0 +1,22 @@
+package io.github.xantorohara.metalock;
+
+/**
+ * Key builders of all @MetaLock methods of one class, generated by the MetaLockKeysProcessor
+ * into the class named "&lt;Class&gt;$MetaLockKeys".
+ * MetaLockAspect finds such class by this naming convention, so the method parameter names
+ * are resolved at compile time and the keys are built without reflection.
+ *
+ * @author Xantorohara
+ */
+public interface MetaLockKeys {
+    /**
+     * Suffix of the generated class name.
+     */
+    String SUFFIX = "$MetaLockKeys";
+
+    /**
+     * @param method - method name with the parameter type names, e.g. "saveRecord(java.lang.String,int)"
+     * @return key builder or null if the method is unknown
+     */
+    LockKeyBuilder get(String method);
+}
@@ -0,0 +1,179 @@
+package io.github.xantorohara.metalock;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optional annotation processor that generates "&lt;Class&gt;$MetaLockKeys" classes (see MetaLockKeys)
+ * for classes with @MetaLock methods. Generated builders access arguments by index,
+ * so the aspect needs neither the parameter names (-parameters or debug info) nor reflection.
+ * <p/>
+ * It is not registered as a service, enable it explicitly, e.g. with maven-compiler-plugin:
+ * <pre>
+ * &lt;annotationProcessors&gt;
+ *     &lt;annotationProcessor&gt;io.github.xantorohara.metalock.MetaLockKeysProcessor&lt;/annotationProcessor&gt;
+ * &lt;/annotationProcessors&gt;
+ * </pre>
+ *
+ * @author Xantorohara
+ */
+@SupportedAnnotationTypes({"io.github.xantorohara.metalock.MetaLock", "io.github.xantorohara.metalock.MetaLocks"})
+public final class MetaLockKeysProcessor extends AbstractProcessor {
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+        Map<TypeElement, Set<ExecutableElement>> methodsByClass = new LinkedHashMap<>();
+
+        Set<Element> annotated = new LinkedHashSet<>();
+        annotated.addAll(roundEnv.getElementsAnnotatedWith(MetaLock.class));
+        annotated.addAll(roundEnv.getElementsAnnotatedWith(MetaLocks.class));
+
+        for (Element element : annotated) {
+            if (element.getKind() == ElementKind.METHOD) {
+                TypeElement type = (TypeElement) element.getEnclosingElement();
+                methodsByClass.computeIfAbsent(type, t -> new LinkedHashSet<>()).add((ExecutableElement) element);
+            }
+        }
+
+        for (Map.Entry<TypeElement, Set<ExecutableElement>> entry : methodsByClass.entrySet()) {
+            try {
+                generate(entry.getKey(), entry.getValue());
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Can't generate MetaLockKeys: " + e, entry.getKey());
+            }
+        }
+        return false;
+    }
+
+    private void generate(final TypeElement type, final Set<ExecutableElement> methods) throws IOException {
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+        String packageName = packageElement.getQualifiedName().toString();
+        String className = binaryName.substring(binaryName.lastIndexOf('.') + 1) + MetaLockKeys.SUFFIX;
+
+        Element[] originating = methods.toArray(new Element[methods.size() + 1]);
+        originating[methods.size()] = type;
+
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler()
+                .createSourceFile(binaryName + MetaLockKeys.SUFFIX, originating).openWriter())) {
+            if (!packageElement.isUnnamed()) {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+            out.println("/**");
+            out.println(" * Generated by the " + getClass().getName() + ", don't edit.");
+            out.println(" */");
+            out.println("public final class " + className + " implements " + MetaLockKeys.class.getName() + " {");
+            out.println("    @Override");
+            out.println("    public " + LockKeyBuilder.class.getName() + " get(String method) {");
+            out.println("        switch (method) {");
+            for (ExecutableElement method : methods) {
+                out.println("            case \"" + getMethodKey(method) + "\":");
+                out.println("                return args -> new String[]{");
+                for (MetaLock metaLock : method.getAnnotationsByType(MetaLock.class)) {
+                    out.println("                        " + getLockNameExpression(method, metaLock) + ",");
+                }
+                out.println("                };");
+            }
+            out.println("            default:");
+            out.println("                return null;");
+            out.println("        }");
+            out.println("    }");
+            out.println("}");
+        }
+    }
+
+    /**
+     * Method name with the parameter type names, it matches MetaLockAspect.getMethodKey().
+     */
+    private String getMethodKey(final ExecutableElement method) {
+        StringBuilder key = new StringBuilder(method.getSimpleName()).append('(');
+        List<? extends VariableElement> parameters = method.getParameters();
+        for (int i = 0; i < parameters.size(); i++) {
+            if (i > 0) {
+                key.append(',');
+            }
+            key.append(getTypeName(processingEnv.getTypeUtils().erasure(parameters.get(i).asType())));
+        }
+        return key.append(')').toString();
+    }
+
+    /**
+     * Type name as Class.getTypeName() returns it.
+     */
+    private String getTypeName(final TypeMirror type) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            return getTypeName(((ArrayType) type).getComponentType()) + "[]";
+        }
+        if (type.getKind() == TypeKind.DECLARED) {
+            TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+            return processingEnv.getElementUtils().getBinaryName(element).toString();
+        }
+        return type.toString();
+    }
+
+    /**
+     * Java expression of the lock name, it matches MetaLockAspect.getLockName():
+     * parameters are taken in the order of the method parameters.
+     */
+    private String getLockNameExpression(final ExecutableElement method, final MetaLock metaLock) {
+        List<String> params = Arrays.asList(metaLock.param());
+        StringBuilder expression = new StringBuilder("new StringBuilder(\"")
+                .append(escape(metaLock.name())).append("\")");
+
+        int found = 0;
+        List<? extends VariableElement> parameters = method.getParameters();
+        for (int i = 0; i < parameters.size(); i++) {
+            if (params.contains(parameters.get(i).getSimpleName().toString())) {
+                expression.append(".append('\\u00a7').append(args[").append(i).append("])");
+                found++;
+            }
+        }
+        if (found < new LinkedHashSet<>(params).size()) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "Some of the @MetaLock params " + params + " are not parameters of the method", method);
+        }
+        return expression.append(".toString()").toString();
+    }
+
+    private static String escape(final String value) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < ' ' || c > '~') {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
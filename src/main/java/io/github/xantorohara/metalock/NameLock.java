@@ -19,4 +19,12 @@ public @interface NameLock {
      * I.e.: "USER_TABLE"
      */
     String[] value();
+
+    /**
+     * Maximum number of threads allowed to wait for each of the locks.
+     * If the lock already has this number of waiters then the caller
+     * is rejected immediately with the LockRejectedException.
+     * Zero (default) means unlimited.
+     */
+    int maxWaiters() default 0;
 }
@@ -11,8 +11,10 @@ import org.springframework.core.annotation.Order;
 
 import java.lang.reflect.Method;
 import java.util.Arrays;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -27,78 +29,323 @@ import java.util.concurrent.locks.ReentrantLock;
 public class NameLockAspect {
     private static final Logger LOG = LoggerFactory.getLogger(NameLockAspect.class);
 
-    private static final String DEBUG_FORMAT = "NL{}U {}";
-    private static final String TRACE_FORMAT = "NL{}U {} {}";
-
     /**
-     * Serial number generator to log Before, After or Error states.
+     * Serial number generator of the invocation ids, used only if the listener needs them.
      */
     private final AtomicLong serial = new AtomicLong(1000000);
 
+    /**
+     * Listener of the lock lifecycle, resolved once.
+     */
+    private final LockListener listener;
+
     /**
      * Locks storage.
      * This storage collects all locked names and never removes them.
      * This is ok, because all these names come from the static annotation parameters.
      */
-    private final ConcurrentMap<String, ReentrantLock> namedLocks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, NamedLock> namedLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Annotated methods resolved to their locks.
+     */
+    private final ConcurrentMap<Method, NameLockHandle> handles = new ConcurrentHashMap<>();
+
+    private volatile AcquireStrategy acquireStrategy = AcquireStrategy.ORDERED;
+
+    private volatile LockBackend backend;
+
+    /**
+     * Create aspect with the default SLF4J listener,
+     * it logs if the "DEBUG" or "TRACE" level is enabled for the NameLockAspect logger.
+     */
+    public NameLockAspect() {
+        this(defaultListener());
+    }
+
+    /**
+     * Create aspect with the given listeners of the lock lifecycle, they replace the default listener,
+     * pass defaultListener() too to keep the logging.
+     *
+     * @param listeners - listeners, may be empty
+     */
+    public NameLockAspect(final LockListener... listeners) {
+        this.listener = LockListeners.resolve(listeners);
+    }
+
+    /**
+     * Listener of the aspect created without listeners: SLF4J logging via the NameLockAspect logger.
+     */
+    public static LockListener defaultListener() {
+        return new Slf4jLockListener(LOG, "NL");
+    }
+
+    /**
+     * Strategy to acquire several locks of one method, AcquireStrategy.ORDERED by default.
+     */
+    public final void setAcquireStrategy(final AcquireStrategy strategy) {
+        this.acquireStrategy = strategy;
+    }
+
+    /**
+     * Backend that makes names exclusive across JVMs, null (local locks only) by default.
+     */
+    public final void setBackend(final LockBackend lockBackend) {
+        this.backend = lockBackend;
+    }
 
     @Around("@annotation(io.github.xantorohara.metalock.NameLock)")
     public final Object lockAround(final ProceedingJoinPoint pjp) throws Throwable {
-        long unique = serial.incrementAndGet();
+        long unique = 0;
+        if (listener.needsInvocationId()) {
+            unique = serial.incrementAndGet();
+        }
 
         MethodSignature methodSignature = (MethodSignature) pjp.getSignature();
         Method method = methodSignature.getMethod();
-        String methodName = methodSignature.toShortString();
 
-        LOG.debug(DEBUG_FORMAT, unique, methodName);
+        NameLockHandle handle = handles.get(method);
+        if (handle == null) {
+            handle = handles.computeIfAbsent(method, m -> resolve(m, methodSignature.toShortString()));
+        }
+        String methodName = handle.methodName;
 
-        NameLock nameLockAnnotation = method.getAnnotation(NameLock.class);
-        String[] lockNames = nameLockAnnotation.value();
+        listener.onInvoke(unique, methodName);
 
-        Arrays.sort(lockNames);
+        if (acquireStrategy == AcquireStrategy.ALL_OR_NOTHING && handle.locks.length > 1) {
+            lockAllOrNothing(handle, unique);
+        } else {
+            lock(handle, unique);
+        }
 
-        lock(lockNames, unique);
+        LockBackend remote = backend;
+        if (remote != null) {
+            try {
+                remote.lock(handle.remoteKeys);
+            } catch (RuntimeException e) {
+                unlock(handle, handle.locks.length, unique);
+                throw e;
+            }
+        }
 
+        Object holdEvent = LockEvents.beginHold();
+        String outcome = LockEvents.FAILED;
         try {
-            LOG.debug(DEBUG_FORMAT, unique, "Before");
+            listener.onProceed(unique);
             Object result = pjp.proceed();
-            LOG.debug(DEBUG_FORMAT, unique, "After");
+            listener.onComplete(unique);
+            outcome = LockEvents.COMPLETED;
             return result;
         } catch (Throwable e) {
-            LOG.debug(DEBUG_FORMAT, unique, "Error");
+            listener.onError(unique, e);
             throw e;
         } finally {
-            unlock(lockNames, unique);
+            LockEvents.endHold(holdEvent, handle.lockNames, methodName, outcome);
+            if (remote != null) {
+                try {
+                    remote.unlock(handle.remoteKeys);
+                } catch (RuntimeException e) {
+                    LOG.error("Backend failed to unlock {} of {}", Arrays.toString(handle.lockNames), methodName, e);
+                }
+            }
+            unlock(handle, handle.locks.length, unique);
+        }
+    }
+
+    /**
+     * Sorted and de-duplicated lock names of the resolved method, null if the method was not invoked yet.
+     */
+    final String[] getLockNames(final Method method) {
+        NameLockHandle handle = handles.get(method);
+        if (handle == null) {
+            return null;
         }
+        return handle.lockNames;
     }
 
     /**
-     * Create or obtain named locks.
+     * Resolve the annotated method once: sort and de-duplicate its lock names and obtain their locks.
+     */
+    private NameLockHandle resolve(final Method method, final String methodName) {
+        NameLock nameLockAnnotation = method.getAnnotation(NameLock.class);
+        String[] lockNames = new TreeSet<>(Arrays.asList(nameLockAnnotation.value())).toArray(new String[0]);
+
+        NamedLock[] locks = new NamedLock[lockNames.length];
+        for (int i = 0; i < lockNames.length; i++) {
+            locks[i] = namedLocks.computeIfAbsent(lockNames[i], s -> new NamedLock());
+        }
+
+        return new NameLockHandle(methodName, lockNames, locks, nameLockAnnotation.maxWaiters());
+    }
+
+    /**
+     * Obtain locks of the method in order.
+     * If some lock already has too many waiters, release the obtained ones
+     * and reject the invocation with the LockRejectedException.
+     *
+     * @param handle - resolved method
+     * @param unique - unique invocation number for the listener
+     */
+    private void lock(final NameLockHandle handle, final long unique) {
+        String[] lockNames = handle.lockNames;
+        NamedLock[] locks = handle.locks;
+        int maxWaiters = handle.maxWaiters;
+
+        for (int i = 0; i < locks.length; i++) {
+            String lockName = lockNames[i];
+            NamedLock lock = locks[i];
+            listener.onAcquire(unique, lockName);
+            Object waitEvent = LockEvents.beginWait();
+
+            if (!lock.reserve(maxWaiters)) {
+                LockEvents.endWait(waitEvent, lockName, handle.methodName, LockEvents.REJECTED);
+                listener.onTimeout(unique, lockName);
+                unlock(handle, i, unique);
+                throw new LockRejectedException(lockName, maxWaiters);
+            }
+
+            ManagedBlocking.lock(lock);
+            LockEvents.endWait(waitEvent, lockName, handle.methodName, LockEvents.ACQUIRED);
+            listener.onAcquired(unique, lockName);
+        }
+    }
+
+    /**
+     * Obtain all locks of the method at once, see AcquireStrategy.ALL_OR_NOTHING.
+     * Locks are reserved first, if some of them already has too many waiters,
+     * cancel the reservations and reject the invocation with the LockRejectedException.
      *
-     * @param sortedLockNames - array of names
-     * @param unique          - unique invocation number to log
+     * @param handle - resolved method
+     * @param unique - unique invocation number for the listener
      */
-    private void lock(final String[] sortedLockNames, final long unique) {
-        for (String lockName : sortedLockNames) {
-            LOG.trace(TRACE_FORMAT, unique, "Locking", lockName);
-            namedLocks.computeIfAbsent(lockName, s -> new ReentrantLock(true)).lock();
-            LOG.trace(TRACE_FORMAT, unique, "Locked", lockName);
+    private void lockAllOrNothing(final NameLockHandle handle, final long unique) {
+        String[] lockNames = handle.lockNames;
+        NamedLock[] locks = handle.locks;
+        int maxWaiters = handle.maxWaiters;
+
+        for (String lockName : lockNames) {
+            listener.onAcquire(unique, lockName);
+        }
+        Object waitEvent = LockEvents.beginWait();
+
+        for (int i = 0; i < locks.length; i++) {
+            if (!locks[i].reserve(maxWaiters)) {
+                for (int j = i - 1; j >= 0; j--) {
+                    locks[j].cancel();
+                }
+                LockEvents.endWait(waitEvent, lockNames[i], handle.methodName, LockEvents.REJECTED);
+                for (int j = lockNames.length - 1; j >= 0; j--) {
+                    listener.onTimeout(unique, lockNames[j]);
+                }
+                throw new LockRejectedException(lockNames[i], maxWaiters);
+            }
+        }
+
+        int[] contended = {0};
+        AllOrNothing.acquire(locks.length,
+                i -> locks[i].tryLock(),
+                i -> {
+                    contended[0] = i;
+                    ManagedBlocking.lock(locks[i]);
+                    return true;
+                },
+                i -> locks[i].unlock());
+
+        LockEvents.endWait(waitEvent, lockNames[contended[0]], handle.methodName, LockEvents.ACQUIRED);
+        for (String lockName : lockNames) {
+            listener.onAcquired(unique, lockName);
         }
     }
 
     /**
-     * Release sorted named locks in reverse order.
+     * Release first "count" of locks of the method in reverse order.
      *
-     * @param sortedLockNames - array of names
-     * @param unique          - unique invocation number to log
+     * @param handle - resolved method
+     * @param count  - number of obtained locks
+     * @param unique - unique invocation number for the listener
+     */
+    private void unlock(final NameLockHandle handle, final int count, final long unique) {
+        for (int i = count - 1; i >= 0; i--) {
+            String lockName = handle.lockNames[i];
+            listener.onRelease(unique, lockName);
+            handle.locks[i].release();
+            listener.onReleased(unique, lockName);
+        }
+    }
+
+    /**
+     * Method annotated as @NameLock, resolved once: its sorted and de-duplicated lock names
+     * together with their locks.
      */
-    private void unlock(final String[] sortedLockNames, final long unique) {
-        for (int i = sortedLockNames.length - 1; i >= 0; i--) {
-            String lockName = sortedLockNames[i];
-            LOG.trace(TRACE_FORMAT, unique, "Unlocking", lockName);
-            namedLocks.get(lockName).unlock();
-            LOG.trace(TRACE_FORMAT, unique, "Unlocked", lockName);
+    private static final class NameLockHandle {
+        private final String methodName;
+        private final String[] lockNames;
+        private final NamedLock[] locks;
+        private final int maxWaiters;
+        private final String[] remoteKeys;
+
+        NameLockHandle(final String shortMethodName, final String[] sortedLockNames,
+                       final NamedLock[] sortedLocks, final int maxLockWaiters) {
+            this.methodName = shortMethodName;
+            this.lockNames = sortedLockNames;
+            this.locks = sortedLocks;
+            this.maxWaiters = maxLockWaiters;
+            this.remoteKeys = new String[sortedLockNames.length];
+            for (int i = 0; i < sortedLockNames.length; i++) {
+                remoteKeys[i] = LockBackend.NAME_LOCK_PREFIX + sortedLockNames[i];
+            }
         }
     }
 
+    /**
+     * Fair lock of the name with the exact number of its reservations: the owner (or the thread that
+     * is about to become the owner) and the waiters. The owner doesn't reserve its nested acquisitions.
+     */
+    private static final class NamedLock extends ReentrantLock {
+        private final AtomicInteger reservations = new AtomicInteger();
+
+        NamedLock() {
+            super(true);
+        }
+
+        /**
+         * Reserve the lock before acquiring it.
+         *
+         * @param maxWaiters - limit of waiters, 0 - unlimited
+         * @return false if the lock already has maxWaiters waiters
+         */
+        boolean reserve(final int maxWaiters) {
+            if (isHeldByCurrentThread()) {
+                return true;
+            }
+            while (true) {
+                int current = reservations.get();
+                if (maxWaiters > 0 && current - 1 >= maxWaiters) {
+                    return false;
+                }
+                if (reservations.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Cancel the reservation of the lock which was not acquired.
+         */
+        void cancel() {
+            if (!isHeldByCurrentThread()) {
+                reservations.decrementAndGet();
+            }
+        }
+
+        /**
+         * Unlock the lock and drop the reservation with the last hold.
+         */
+        void release() {
+            if (getHoldCount() == 1) {
+                reservations.decrementAndGet();
+            }
+            unlock();
+        }
+    }
 }
@@ -0,0 +1,472 @@
+package io.github.xantorohara.metalock;
+
+import java.util.Date;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Extension of the ReentrantLock with ability to "reserve"
+ * lock before the real locking.
+ * <p/>
+ * Actually this class itself is not thread-safe, but its methods
+ * reserve(), release() and isFree() are always called from the thread-safe environment.
+ * <p/>
+ * It also remembers the moment when the lock was acquired, so the LockWatchdog
+ * can find locks that are held too long.
+ * <p/>
+ * Besides the FIFO queue of the fair ReentrantLock it has the queue of waiters ordered by deadlines
+ * (see LockQueue.DEADLINE). Such waiters park outside of the ReentrantLock, and the owner
+ * wakes up the waiter with the earliest deadline when it unlocks.
+ * <p/>
+ * The lock has one condition (see MetaLockAspect.getCondition()). The owner that awaits the condition
+ * keeps its reservation, so the lock with waiters is never evicted.
+ * <p/>
+ * Threads use the lock only while they have its reservation, so the free and unlocked lock that is
+ * evicted from the storage is not referenced by any thread (except the LockWatchdog) and can be reused.
+ *
+ * @author Xantorohara
+ */
+final class ReservedLock extends ReentrantLock {
+    /**
+     * Number of reservations, changed under the stripe of the lock, read without it by the LockWatchdog.
+     */
+    private volatile int count = 0;
+
+    /**
+     * System.nanoTime() of the lock acquisition, 0 if the lock is not acquired.
+     */
+    private volatile long acquiredAt;
+
+    /**
+     * Value of the acquiredAt which was already reported by the LockWatchdog.
+     */
+    private volatile long reportedAt;
+
+    /**
+     * Set while the LockWatchdog interrupts the owner, see interruptOwner().
+     */
+    private volatile boolean interrupting;
+
+    /**
+     * Spin policy that collects hold times of this lock, it is set by the owner thread.
+     */
+    private SpinPolicy spinPolicy;
+
+    /**
+     * Waiters ordered by deadlines, guarded by this lock's monitor, created on demand.
+     */
+    private PriorityQueue<DeadlineWaiter> deadlineWaiters;
+
+    /**
+     * Number of waiters in the deadlineWaiters queue, changed only under this lock's monitor.
+     */
+    private volatile int deadlineWaitersCount;
+
+    /**
+     * Arrival sequence of the deadline waiters, guarded by this lock's monitor.
+     */
+    private long arrivals;
+
+    /**
+     * Condition of the key, created on demand by the owner.
+     */
+    private volatile KeyCondition condition;
+
+    ReservedLock(final boolean fair) {
+        super(fair);
+    }
+
+    void reserve() {
+        count++;
+    }
+
+    void release() {
+        count--;
+    }
+
+    boolean isFree() {
+        return count == 0;
+    }
+
+    /**
+     * Number of threads that wait for the lock: all reservations except the one of the owner
+     * (or of the thread that is about to become the owner). Unlike the queue length it is exact
+     * and counts the threads that are reserved but not queued yet and the deadline waiters.
+     */
+    int getWaiters() {
+        return Math.max(count - 1, 0);
+    }
+
+    /**
+     * Check whether the lock has reached the limit of waiters, called under the stripe of the lock.
+     * The thread that already holds the lock is never rejected.
+     */
+    boolean isOverloaded(final int maxWaiters) {
+        return maxWaiters > 0 && !isHeldByCurrentThread() && getWaiters() >= maxWaiters;
+    }
+
+    /**
+     * Lock and remember the acquisition time.
+     *
+     * @param policy - spin policy to spin before parking, or null to park immediately
+     */
+    void acquire(final SpinPolicy policy) {
+        if (policy == null || !policy.spin(this)) {
+            ManagedBlocking.lock(this);
+        }
+        acquired(policy);
+    }
+
+    /**
+     * Lock in the earliest-deadline-first order and remember the acquisition time.
+     *
+     * @param policy   - spin policy to spin before parking, or null to park immediately
+     * @param limited  - whether the waiter has a deadline
+     * @param deadline - deadline in terms of the System.nanoTime()
+     * @return true if the lock was acquired, false if the deadline expired
+     */
+    boolean acquire(final SpinPolicy policy, final boolean limited, final long deadline) {
+        if (limited && deadline - System.nanoTime() <= 0) {
+            return false;
+        }
+        if (policy != null && policy.spin(this)) {
+            acquired(policy);
+            return true;
+        }
+
+        DeadlineWaiter waiter;
+        synchronized (this) {
+            if (deadlineWaiters == null) {
+                deadlineWaiters = new PriorityQueue<>();
+            }
+            waiter = new DeadlineWaiter(Thread.currentThread(), limited, deadline, arrivals++);
+            deadlineWaiters.add(waiter);
+            deadlineWaitersCount++;
+        }
+
+        boolean locked = false;
+        boolean interrupted = false;
+        try {
+            while (!waiter.dropped) {
+                if (isFirst(waiter) && tryLock()) {
+                    locked = true;
+                    break;
+                }
+                long remaining = 0;
+                if (limited) {
+                    remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                }
+                ManagedBlocking.park(this, limited, remaining);
+                interrupted |= Thread.interrupted();
+            }
+        } finally {
+            synchronized (this) {
+                if (deadlineWaiters.remove(waiter)) {
+                    deadlineWaitersCount--;
+                }
+            }
+            if (!locked) {
+                signalFirst();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (locked) {
+            acquired(policy);
+        }
+        return locked;
+    }
+
+    /**
+     * Try to lock without waiting and remember the acquisition time.
+     *
+     * @return true if the lock was acquired
+     */
+    boolean tryAcquire() {
+        if (tryLock()) {
+            acquired(null);
+            return true;
+        }
+        return false;
+    }
+
+    private void acquired(final SpinPolicy policy) {
+        acquiredAt = System.nanoTime();
+        spinPolicy = policy;
+    }
+
+    /**
+     * Check whether the waiter has the earliest deadline among the live waiters.
+     */
+    private synchronized boolean isFirst(final DeadlineWaiter waiter) {
+        dropExpired();
+        return deadlineWaiters.peek() == waiter;
+    }
+
+    /**
+     * Drop expired waiters from the head of the queue and wake them up, should be called under the monitor.
+     */
+    private void dropExpired() {
+        long now = System.nanoTime();
+        DeadlineWaiter head = deadlineWaiters.peek();
+        while (head != null && head.limited && head.deadline - now <= 0) {
+            deadlineWaiters.poll();
+            deadlineWaitersCount--;
+            head.dropped = true;
+            LockSupport.unpark(head.thread);
+            head = deadlineWaiters.peek();
+        }
+    }
+
+    /**
+     * Wake up the live waiter with the earliest deadline.
+     */
+    private void signalFirst() {
+        Thread thread = null;
+        synchronized (this) {
+            if (deadlineWaiters != null) {
+                dropExpired();
+                DeadlineWaiter head = deadlineWaiters.peek();
+                if (head != null) {
+                    thread = head.thread;
+                }
+            }
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Forget the acquisition time and unlock.
+     */
+    void unlockHeld() {
+        SpinPolicy policy = spinPolicy;
+        if (policy != null) {
+            policy.recordHold(System.nanoTime() - acquiredAt);
+            spinPolicy = null;
+        }
+        forgetAcquisition();
+        unlock();
+        if (deadlineWaitersCount > 0) {
+            signalFirst();
+        }
+    }
+
+    /**
+     * Condition of this lock, should be called by the owner.
+     */
+    Condition getCondition() {
+        KeyCondition keyCondition = condition;
+        if (keyCondition == null) {
+            synchronized (this) {
+                keyCondition = condition;
+                if (keyCondition == null) {
+                    keyCondition = new KeyCondition(newCondition());
+                    condition = keyCondition;
+                }
+            }
+        }
+        return keyCondition;
+    }
+
+    /**
+     * Forget the acquisition time before the condition releases the lock,
+     * the hold until now is recorded by the spin policy.
+     *
+     * @return spin policy of the owner, it is restored when the owner wakes up and holds the lock again
+     */
+    private SpinPolicy beforeAwait() {
+        if (!isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException();
+        }
+        if (deadlineWaitersCount > 0) {
+            throw new IllegalStateException("Conditions are not supported by the deadline queue");
+        }
+        SpinPolicy policy = spinPolicy;
+        if (policy != null) {
+            policy.recordHold(System.nanoTime() - acquiredAt);
+            spinPolicy = null;
+        }
+        forgetAcquisition();
+        return policy;
+    }
+
+    /**
+     * Forget the acquisition time, but not while the LockWatchdog is interrupting this owner.
+     * Together with interruptOwner() it is the Dekker handshake on two volatile fields:
+     * either the watchdog sees the acquisition time already forgotten, or the owner waits here
+     * (still holding the lock) until the interrupt is delivered.
+     */
+    private void forgetAcquisition() {
+        acquiredAt = 0;
+        while (interrupting) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Interrupt the owner if it still holds the lock acquired at the given time,
+     * so the interrupt never hits a thread that has released the lock or the owner of the recycled lock.
+     *
+     * @param heldSince - acquisition time of the hold to interrupt
+     * @return true if the owner was interrupted
+     */
+    synchronized boolean interruptOwner(final long heldSince) {
+        interrupting = true;
+        try {
+            Thread owner = getOwner();
+            if (owner == null || acquiredAt != heldSince) {
+                return false;
+            }
+            owner.interrupt();
+            return true;
+        } finally {
+            interrupting = false;
+        }
+    }
+
+    /**
+     * Prepare the free and unlocked lock for reuse with another key, see LockRegistry.recycle().
+     * The lock has no waiters, so the deadline queue and the condition of the previous key are dropped.
+     */
+    synchronized void recycle() {
+        reportedAt = 0;
+        deadlineWaiters = null;
+        arrivals = 0;
+        condition = null;
+    }
+
+    long getAcquiredAt() {
+        return acquiredAt;
+    }
+
+    long getReportedAt() {
+        return reportedAt;
+    }
+
+    void setReportedAt(final long reportedAcquiredAt) {
+        this.reportedAt = reportedAcquiredAt;
+    }
+
+    Thread getOwnerThread() {
+        return getOwner();
+    }
+
+    /**
+     * Condition that keeps the acquisition time of the lock up to date.
+     */
+    private final class KeyCondition implements Condition {
+        private final Condition delegate;
+
+        KeyCondition(final Condition lockCondition) {
+            this.delegate = lockCondition;
+        }
+
+        @Override
+        public void await() throws InterruptedException {
+            SpinPolicy policy = beforeAwait();
+            try {
+                delegate.await();
+            } finally {
+                acquired(policy);
+            }
+        }
+
+        @Override
+        public void awaitUninterruptibly() {
+            SpinPolicy policy = beforeAwait();
+            try {
+                delegate.awaitUninterruptibly();
+            } finally {
+                acquired(policy);
+            }
+        }
+
+        @Override
+        public long awaitNanos(final long nanosTimeout) throws InterruptedException {
+            SpinPolicy policy = beforeAwait();
+            try {
+                return delegate.awaitNanos(nanosTimeout);
+            } finally {
+                acquired(policy);
+            }
+        }
+
+        @Override
+        public boolean await(final long time, final TimeUnit unit) throws InterruptedException {
+            SpinPolicy policy = beforeAwait();
+            try {
+                return delegate.await(time, unit);
+            } finally {
+                acquired(policy);
+            }
+        }
+
+        @Override
+        public boolean awaitUntil(final Date deadline) throws InterruptedException {
+            SpinPolicy policy = beforeAwait();
+            try {
+                return delegate.awaitUntil(deadline);
+            } finally {
+                acquired(policy);
+            }
+        }
+
+        @Override
+        public void signal() {
+            delegate.signal();
+        }
+
+        @Override
+        public void signalAll() {
+            delegate.signalAll();
+        }
+    }
+
+    /**
+     * Waiter in the queue ordered by deadlines.
+     * Waiters without deadline go after waiters with deadlines, ties are resolved by the arrival order.
+     */
+    private static final class DeadlineWaiter implements Comparable<DeadlineWaiter> {
+        private final Thread thread;
+        private final boolean limited;
+        private final long deadline;
+        private final long arrival;
+
+        /**
+         * Set when the waiter was dropped from the queue because its deadline expired.
+         */
+        private volatile boolean dropped;
+
+        DeadlineWaiter(final Thread waiterThread, final boolean hasDeadline, final long deadlineNanos,
+                       final long arrivalNumber) {
+            this.thread = waiterThread;
+            this.limited = hasDeadline;
+            this.deadline = deadlineNanos;
+            this.arrival = arrivalNumber;
+        }
+
+        @Override
+        public int compareTo(final DeadlineWaiter other) {
+            if (limited != other.limited) {
+                if (limited) {
+                    return -1;
+                }
+                return 1;
+            }
+            if (limited && deadline != other.deadline) {
+                return Long.compare(deadline - other.deadline, 0);
+            }
+            return Long.compare(arrival, other.arrival);
+        }
+    }
+}
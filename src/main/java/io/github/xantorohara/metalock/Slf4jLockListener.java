@@ -0,0 +1,106 @@
+package io.github.xantorohara.metalock;
+
+import org.slf4j.Logger;
+
+/**
+ * Default listener that logs the lock lifecycle via SLF4J.
+ * <p/>
+ * With "TRACE" level it logs each operation related to AOP wrapping and locking.
+ * With "DEBUG" - only related to AOP wrapping.
+ * Levels are checked on each call, so they can be changed at runtime,
+ * and with both levels disabled the aspect doesn't generate invocation ids at all.
+ *
+ * @author Xantorohara
+ */
+public class Slf4jLockListener implements LockListener {
+    private final Logger log;
+    private final String debugFormat;
+    private final String traceFormat;
+
+    /**
+     * Create listener for the given logger.
+     *
+     * @param logger - logger to write to
+     * @param prefix - prefix of the invocation ids, e.g. "ML"
+     */
+    public Slf4jLockListener(final Logger logger, final String prefix) {
+        this.log = logger;
+        this.debugFormat = prefix + "{}U {}";
+        this.traceFormat = prefix + "{}U {} {}";
+    }
+
+    @Override
+    public final boolean needsInvocationId() {
+        return log.isDebugEnabled() || log.isTraceEnabled();
+    }
+
+    @Override
+    public final void onInvoke(final long invocationId, final String methodName) {
+        if (log.isDebugEnabled()) {
+            log.debug(debugFormat, invocationId, methodName);
+        }
+    }
+
+    @Override
+    public final void onAcquire(final long invocationId, final String lockName) {
+        if (log.isTraceEnabled()) {
+            log.trace(traceFormat, invocationId, "Locking", lockName);
+        }
+    }
+
+    @Override
+    public final void onAcquired(final long invocationId, final String lockName) {
+        if (log.isTraceEnabled()) {
+            log.trace(traceFormat, invocationId, "Locked", lockName);
+        }
+    }
+
+    @Override
+    public final void onTimeout(final long invocationId, final String lockName) {
+        if (log.isTraceEnabled()) {
+            log.trace(traceFormat, invocationId, "Rejected", lockName);
+        }
+    }
+
+    @Override
+    public final void onProceed(final long invocationId) {
+        if (log.isDebugEnabled()) {
+            log.debug(debugFormat, invocationId, "Before");
+        }
+    }
+
+    @Override
+    public final void onComplete(final long invocationId) {
+        if (log.isDebugEnabled()) {
+            log.debug(debugFormat, invocationId, "After");
+        }
+    }
+
+    @Override
+    public final void onError(final long invocationId, final Throwable error) {
+        if (log.isDebugEnabled()) {
+            log.debug(debugFormat, invocationId, "Error");
+        }
+    }
+
+    @Override
+    public final void onRelease(final long invocationId, final String lockName) {
+        if (log.isTraceEnabled()) {
+            log.trace(traceFormat, invocationId, "Unlocking", lockName);
+        }
+    }
+
+    @Override
+    public final void onRemoved(final long invocationId, final String lockName) {
+        if (log.isTraceEnabled()) {
+            log.trace(traceFormat, invocationId, "Removed", lockName);
+        }
+    }
+
+    @Override
+    public final void onReleased(final long invocationId, final String lockName) {
+        if (log.isTraceEnabled()) {
+            log.trace(traceFormat, invocationId, "Unlocked", lockName);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package io.github.xantorohara.metalock;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive spin-then-park policy for the locks with the same name.
+ * <p/>
+ * It keeps the moving average of hold times. Waiters spin (yielding the processor)
+ * for up to twice the average hold time and then park.
+ * If the average hold time exceeds MAX_HOLD, waiters park immediately.
+ * <p/>
+ * Spinning stops as soon as there are parked waiters, so spinning threads
+ * don't overtake the queue of the fair lock for long.
+ *
+ * @author Xantorohara
+ */
+final class SpinPolicy {
+    /**
+     * Hold time (in nanoseconds) above which spinning makes no sense.
+     */
+    static final long MAX_HOLD = 50000;
+
+    /**
+     * Minimal spin budget in nanoseconds, used while there are no observed hold times.
+     */
+    static final long MIN_BUDGET = 1000;
+
+    /**
+     * Weight of the new hold time in the moving average is 1/2^AVERAGE_SHIFT.
+     */
+    private static final int AVERAGE_SHIFT = 3;
+
+    /**
+     * Moving average of the hold time in nanoseconds.
+     * Updates are racy, but lost updates don't matter for the average.
+     */
+    private volatile long averageHold;
+
+    /**
+     * Record hold time of the lock.
+     */
+    void recordHold(final long holdNanos) {
+        long average = averageHold;
+        averageHold = average + ((holdNanos - average) >> AVERAGE_SHIFT);
+    }
+
+    /**
+     * Current spin budget in nanoseconds, 0 means park immediately.
+     */
+    long getBudget() {
+        long average = averageHold;
+        if (average >= MAX_HOLD) {
+            return 0;
+        }
+        return Math.max(2 * average, MIN_BUDGET);
+    }
+
+    /**
+     * Try to acquire the lock by spinning within the budget.
+     *
+     * @return true if the lock was acquired, false if the caller should park
+     */
+    boolean spin(final ReentrantLock lock) {
+        long budget = getBudget();
+        if (budget == 0) {
+            return false;
+        }
+        long started = System.nanoTime();
+        while (!lock.hasQueuedThreads()) {
+            if (!lock.isLocked() && lock.tryLock()) {
+                return true;
+            }
+            if (System.nanoTime() - started > budget) {
+                return false;
+            }
+            Thread.yield();
+        }
+        return false;
+    }
+}
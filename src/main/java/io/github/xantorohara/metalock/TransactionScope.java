@@ -0,0 +1,41 @@
+package io.github.xantorohara.metalock;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Bridge to the optional spring-tx, see LockScope.TRANSACTION.
+ * It is used only if spring-tx is present in the classpath (see MetaLockAspect.TRANSACTIONS_PRESENT).
+ *
+ * @author Xantorohara
+ */
+final class TransactionScope {
+
+    private TransactionScope() {
+    }
+
+    /**
+     * Whether the current thread is already inside the transaction.
+     */
+    static boolean isTransactionActive() {
+        return TransactionSynchronizationManager.isActualTransactionActive();
+    }
+
+    /**
+     * Run the release after completion of the current transaction.
+     *
+     * @return false if there is no active transaction synchronization, so the release must be done right now
+     */
+    static boolean releaseAfterCompletion(final Runnable release) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return false;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(final int status) {
+                release.run();
+            }
+        });
+        return true;
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.xantorohara.metalock;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Versions of the keys for LockMode.OPTIMISTIC.
+ * <p/>
+ * Keys are hashed into a fixed number of slots, so keys that share a slot only cause false conflicts.
+ * Slots are padded to separate cache lines.
+ * <p/>
+ * The low bits of the slot count exclusive holders of its keys (fallback calls), the high bits
+ * count versions. An optimistic call succeeds if no exclusive holder was present when it started
+ * and the slot hasn't changed until its end.
+ *
+ * @author Xantorohara
+ */
+final class VersionTable {
+    private static final int SLOTS = 512;
+    private static final int PADDING = 8;
+    private static final int EXCLUSIVE_BITS = 16;
+
+    static final long VERSION_UNIT = 1L << EXCLUSIVE_BITS;
+    static final long EXCLUSIVE_MASK = VERSION_UNIT - 1;
+
+    private final AtomicLongArray versions = new AtomicLongArray(SLOTS * PADDING);
+
+    /**
+     * Index of the slot of the key.
+     */
+    int slot(final String lockName) {
+        return (int) (CompactLockTable.fingerprint(lockName) & (SLOTS - 1)) * PADDING;
+    }
+
+    long get(final int slot) {
+        return versions.get(slot);
+    }
+
+    /**
+     * Increment the version if the slot hasn't changed since it was read.
+     *
+     * @return false if there was a conflicting call
+     */
+    boolean validate(final int slot, final long version) {
+        return versions.compareAndSet(slot, version, version + VERSION_UNIT);
+    }
+
+    void enterExclusive(final int slot) {
+        versions.incrementAndGet(slot);
+    }
+
+    /**
+     * Leave the slot and increment its version, so optimistic calls that overlapped the exclusive one fail.
+     */
+    void exitExclusive(final int slot) {
+        versions.addAndGet(slot, VERSION_UNIT - 1);
+    }
+
+    static boolean isExclusive(final long version) {
+        return (version & EXCLUSIVE_MASK) != 0;
+    }
+}
@@ -0,0 +1,122 @@
+package io.github.xantorohara.metalock.remote;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary protocol of the LockServer.
+ * <p/>
+ * Every frame is: int length of the rest, byte operation, long request id, payload.
+ * Strings are: short length, UTF-8 bytes. Keys are: short count, strings.
+ * <pre>
+ * ACQUIRE   - long owner, keys  -> GRANTED when all keys are acquired (pushed by the server)
+ * RELEASE   - long owner, keys  -> ERROR if some key is not held by the owner, otherwise no response
+ * HEARTBEAT - int lease millis  -> no response, the server releases all keys of the connection
+ *                                  that is silent longer than its lease
+ * ERROR     - string message
+ * </pre>
+ * Requests of one connection are processed in order, so they can be pipelined.
+ *
+ * @author Xantorohara
+ */
+final class LockProtocol {
+    static final byte ACQUIRE = 1;
+    static final byte GRANTED = 2;
+    static final byte RELEASE = 3;
+    static final byte HEARTBEAT = 4;
+    static final byte ERROR = 5;
+
+    /**
+     * Size of the frame length.
+     */
+    static final int LENGTH_SIZE = Integer.BYTES;
+
+    private static final int MAX_FRAME_BITS = 20;
+
+    /**
+     * Maximum frame length, longer frames break the connection.
+     */
+    static final int MAX_FRAME = 1 << MAX_FRAME_BITS;
+
+    private static final int HEADER_SIZE = Byte.BYTES + Long.BYTES;
+
+    private LockProtocol() {
+    }
+
+    static ByteBuffer acquire(final long requestId, final long owner, final String[] keys) {
+        return keys(ACQUIRE, requestId, owner, keys);
+    }
+
+    static ByteBuffer release(final long requestId, final long owner, final String[] keys) {
+        return keys(RELEASE, requestId, owner, keys);
+    }
+
+    static ByteBuffer heartbeat(final long requestId, final int leaseMillis) {
+        ByteBuffer frame = frame(HEARTBEAT, requestId, Integer.BYTES);
+        frame.putInt(leaseMillis);
+        frame.flip();
+        return frame;
+    }
+
+    static ByteBuffer granted(final long requestId) {
+        ByteBuffer frame = frame(GRANTED, requestId, 0);
+        frame.flip();
+        return frame;
+    }
+
+    static ByteBuffer error(final long requestId, final String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = frame(ERROR, requestId, Short.BYTES + bytes.length);
+        frame.putShort((short) bytes.length).put(bytes);
+        frame.flip();
+        return frame;
+    }
+
+    private static ByteBuffer keys(final byte operation, final long requestId, final long owner,
+                                  final String[] keys) {
+        if (keys.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many keys: " + keys.length);
+        }
+        byte[][] encoded = new byte[keys.length][];
+        int size = Long.BYTES + Short.BYTES;
+        for (int i = 0; i < keys.length; i++) {
+            encoded[i] = keys[i].getBytes(StandardCharsets.UTF_8);
+            if (encoded[i].length > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Too long key: " + keys[i]);
+            }
+            size += Short.BYTES + encoded[i].length;
+        }
+
+        ByteBuffer frame = frame(operation, requestId, size);
+        frame.putLong(owner).putShort((short) keys.length);
+        for (byte[] key : encoded) {
+            frame.putShort((short) key.length).put(key);
+        }
+        frame.flip();
+        return frame;
+    }
+
+    private static ByteBuffer frame(final byte operation, final long requestId, final int payloadSize) {
+        int length = HEADER_SIZE + payloadSize;
+        if (length > MAX_FRAME) {
+            throw new IllegalArgumentException("Too long frame: " + length);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(LENGTH_SIZE + length);
+        frame.putInt(length).put(operation).putLong(requestId);
+        return frame;
+    }
+
+    static String readString(final ByteBuffer payload) {
+        byte[] bytes = new byte[payload.getShort()];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static String[] readKeys(final ByteBuffer payload) {
+        String[] keys = new String[payload.getShort()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = readString(payload);
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,432 @@
+package io.github.xantorohara.metalock.remote;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Standalone lock server for several JVMs, see LockProtocol and RemoteLockBackend.
+ * <p/>
+ * One selector thread owns all state, so the server has no locks inside.
+ * Keys are owned by the connection and the owner id (thread id of the client), acquisitions are reentrant.
+ * The batch of keys is acquired in its order (clients sort keys, so batches don't deadlock),
+ * the request waits in the queue of the first busy key and gets the GRANTED frame when all keys are acquired.
+ * Keys of the closed connection or of the connection that is silent longer than its lease are released.
+ * <pre>
+ * LockServer server = new LockServer(new InetSocketAddress(7700));
+ * server.start();
+ * </pre>
+ * Or standalone, see main().
+ *
+ * @author Xantorohara
+ */
+public final class LockServer implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(LockServer.class);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Port of the standalone server, see main().
+     */
+    private static final int DEFAULT_PORT = 7700;
+
+    /**
+     * Period of the lease checks in milliseconds.
+     */
+    private static final long CHECK_PERIOD = 100;
+
+    private final ServerSocketChannel server;
+
+    private final Selector selector;
+
+    private final Thread thread;
+
+    private final Map<String, KeyState> keys = new HashMap<>();
+
+    private final Set<Connection> connections = new HashSet<>();
+
+    private final List<Connection> broken = new ArrayList<>();
+
+    private volatile boolean running;
+
+    /**
+     * Create server on the given address, the port 0 means any free port.
+     */
+    public LockServer(final InetSocketAddress address) throws IOException {
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        this.thread = new Thread(this::serve, "metalock-server");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Create server on the loopback address.
+     */
+    public LockServer(final int port) throws IOException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Run the standalone server until the JVM is stopped:
+     * <pre>
+     * java -cp "metalock.jar:lib/*" io.github.xantorohara.metalock.remote.LockServer [port] [bindAddress]
+     * </pre>
+     * The port is 7700 by default. The server binds to the loopback address by default,
+     * pass e.g. 0.0.0.0 to accept clients from other hosts.
+     */
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        int port = DEFAULT_PORT;
+        if (args.length > 0) {
+            port = Integer.parseInt(args[0]);
+        }
+        InetAddress bindAddress = InetAddress.getLoopbackAddress();
+        if (args.length > 1) {
+            bindAddress = InetAddress.getByName(args[1]);
+        }
+
+        LockServer lockServer = new LockServer(new InetSocketAddress(bindAddress, port));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                lockServer.close();
+            } catch (IOException e) {
+                LOG.warn("Lock server failed to close", e);
+            }
+        }, "metalock-server-shutdown"));
+        lockServer.start();
+        lockServer.thread.join();
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    /**
+     * Stop the server and close all connections.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    private void serve() {
+        LOG.info("Lock server is listening on {}", server.socket().getLocalSocketAddress());
+        while (running) {
+            try {
+                selector.select(CHECK_PERIOD);
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept();
+                    } else {
+                        handle(key);
+                    }
+                }
+                for (Connection connection : broken) {
+                    disconnect(connection);
+                }
+                broken.clear();
+                expireLeases();
+            } catch (IOException e) {
+                LOG.error("Lock server failed", e);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connections.add(connection);
+    }
+
+    private void handle(final SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isValid() && key.isWritable()) {
+                flush(connection);
+            }
+            if (key.isValid() && key.isReadable()) {
+                read(connection);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("Connection {} failed", connection, e);
+            disconnect(connection);
+        }
+    }
+
+    private void read(final Connection connection) throws IOException {
+        if (connection.channel.read(connection.in) < 0) {
+            disconnect(connection);
+            return;
+        }
+        connection.lastSeen = System.nanoTime();
+
+        ByteBuffer in = connection.in;
+        in.flip();
+        while (in.remaining() >= LockProtocol.LENGTH_SIZE) {
+            int length = in.getInt(in.position());
+            if (length <= 0 || length > LockProtocol.MAX_FRAME) {
+                throw new IOException("Wrong frame length: " + length);
+            }
+            if (in.remaining() < LockProtocol.LENGTH_SIZE + length) {
+                break;
+            }
+            in.position(in.position() + LockProtocol.LENGTH_SIZE);
+            ByteBuffer frame = in.slice();
+            frame.limit(length);
+            in.position(in.position() + length);
+            process(connection, frame);
+        }
+        in.compact();
+
+        if (!in.hasRemaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(in.capacity() * 2);
+            in.flip();
+            larger.put(in);
+            connection.in = larger;
+        }
+    }
+
+    private void process(final Connection connection, final ByteBuffer frame) throws IOException {
+        byte operation = frame.get();
+        long requestId = frame.getLong();
+        switch (operation) {
+            case LockProtocol.ACQUIRE:
+                Pending pending = new Pending(connection, requestId, frame.getLong(), LockProtocol.readKeys(frame));
+                connection.pendings.add(pending);
+                advance(pending);
+                break;
+            case LockProtocol.RELEASE:
+                long owner = frame.getLong();
+                for (String key : LockProtocol.readKeys(frame)) {
+                    release(connection, requestId, owner, key);
+                }
+                break;
+            case LockProtocol.HEARTBEAT:
+                connection.leaseNanos = TimeUnit.MILLISECONDS.toNanos(frame.getInt());
+                break;
+            default:
+                throw new IOException("Unknown operation: " + operation);
+        }
+    }
+
+    /**
+     * Acquire the rest keys of the request in order, stop at the first busy key.
+     */
+    private void advance(final Pending pending) {
+        while (pending.next < pending.keys.length) {
+            String key = pending.keys[pending.next];
+            KeyState state = keys.computeIfAbsent(key, k -> new KeyState());
+            if (state.owner == null) {
+                state.take(pending);
+                pending.connection.held.add(key);
+            } else if (state.owner == pending.connection && state.ownerId == pending.owner) {
+                state.holds++;
+            } else {
+                state.waiters.add(pending);
+                return;
+            }
+            pending.next++;
+        }
+        pending.connection.pendings.remove(pending);
+        send(pending.connection, LockProtocol.granted(pending.requestId));
+    }
+
+    private void release(final Connection connection, final long requestId, final long owner, final String key) {
+        KeyState state = keys.get(key);
+        if (state == null || state.owner != connection || state.ownerId != owner) {
+            send(connection, LockProtocol.error(requestId, "Key " + key + " is not held by " + owner));
+            return;
+        }
+        if (--state.holds == 0) {
+            connection.held.remove(key);
+            handOver(key, state);
+        }
+    }
+
+    /**
+     * Give the free key to the next live waiter or forget it.
+     */
+    private void handOver(final String key, final KeyState state) {
+        state.owner = null;
+        Pending pending;
+        while ((pending = state.waiters.poll()) != null) {
+            if (!pending.connection.closed) {
+                state.take(pending);
+                pending.connection.held.add(key);
+                pending.next++;
+                advance(pending);
+                return;
+            }
+        }
+        keys.remove(key);
+    }
+
+    /**
+     * Queue the frame, the failed connection is closed after the current selection,
+     * because frames are also sent to other connections while one is being handled.
+     */
+    private void send(final Connection connection, final ByteBuffer frame) {
+        if (connection.closed) {
+            return;
+        }
+        connection.out.add(frame);
+        try {
+            flush(connection);
+        } catch (IOException e) {
+            LOG.debug("Connection {} failed", connection, e);
+            broken.add(connection);
+        }
+    }
+
+    private void flush(final Connection connection) throws IOException {
+        ByteBuffer frame;
+        while ((frame = connection.out.peek()) != null) {
+            connection.channel.write(frame);
+            if (frame.hasRemaining()) {
+                connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            connection.out.poll();
+        }
+        connection.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void expireLeases() {
+        long now = System.nanoTime();
+        List<Connection> expired = new ArrayList<>();
+        for (Connection connection : connections) {
+            if (connection.leaseNanos > 0 && now - connection.lastSeen > connection.leaseNanos) {
+                expired.add(connection);
+            }
+        }
+        for (Connection connection : expired) {
+            LOG.warn("Lease of the connection {} has expired, releasing {} keys", connection, connection.held.size());
+            disconnect(connection);
+        }
+    }
+
+    /**
+     * Close the connection and release all its keys.
+     */
+    private void disconnect(final Connection connection) {
+        if (connection.closed) {
+            return;
+        }
+        connection.closed = true;
+        connections.remove(connection);
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            LOG.debug("Can't close the connection {}", connection, e);
+        }
+
+        for (String key : connection.held) {
+            handOver(key, keys.get(key));
+        }
+        connection.held.clear();
+        connection.pendings.clear();
+    }
+
+    /**
+     * Client connection, owned by the selector thread.
+     */
+    private static final class Connection {
+        private final SocketChannel channel;
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        private final Set<String> held = new HashSet<>();
+        private final Set<Pending> pendings = new HashSet<>();
+        private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        private SelectionKey key;
+        private long lastSeen = System.nanoTime();
+        private long leaseNanos;
+        private boolean closed;
+
+        Connection(final SocketChannel socketChannel) {
+            this.channel = socketChannel;
+        }
+
+        @Override
+        public String toString() {
+            return channel.socket().getRemoteSocketAddress().toString();
+        }
+    }
+
+    /**
+     * Acquire request that waits for its keys.
+     */
+    private static final class Pending {
+        private final Connection connection;
+        private final long requestId;
+        private final long owner;
+        private final String[] keys;
+        private int next;
+
+        Pending(final Connection ownerConnection, final long id, final long ownerId, final String[] batch) {
+            this.connection = ownerConnection;
+            this.requestId = id;
+            this.owner = ownerId;
+            this.keys = batch;
+        }
+    }
+
+    /**
+     * Owner and waiters of the key.
+     */
+    private static final class KeyState {
+        private final ArrayDeque<Pending> waiters = new ArrayDeque<>();
+        private Connection owner;
+        private long ownerId;
+        private int holds;
+
+        void take(final Pending pending) {
+            owner = pending.connection;
+            ownerId = pending.owner;
+            holds = 1;
+        }
+    }
+}
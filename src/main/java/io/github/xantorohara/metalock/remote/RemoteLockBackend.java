@@ -0,0 +1,231 @@
+package io.github.xantorohara.metalock.remote;
+
+import io.github.xantorohara.metalock.LockBackend;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LockBackend of the LockServer.
+ * <p/>
+ * One connection is shared by all threads, the owner of the keys is the thread id.
+ * Acquisitions wait for the GRANTED frame pushed by the server, releases are pipelined without waiting.
+ * Heartbeats keep the lease of the connection, keys are released by the server if the JVM dies or hangs.
+ * <p/>
+ * There are no fencing tokens: if the lease expires (e.g. a long GC pause) or the connection breaks,
+ * the server releases the keys while local threads may still run their locked methods.
+ * The backend doesn't reconnect, after the connection is lost all acquisitions fail,
+ * so it should be replaced by a new backend.
+ * <pre>
+ * RemoteLockBackend backend = new RemoteLockBackend(new InetSocketAddress("localhost", 7700), 10000);
+ * metaLockAspect.setBackend(backend);
+ * nameLockAspect.setBackend(backend);
+ * </pre>
+ *
+ * @author Xantorohara
+ */
+public final class RemoteLockBackend implements LockBackend, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(RemoteLockBackend.class);
+
+    /**
+     * Default lease in milliseconds.
+     */
+    public static final int DEFAULT_LEASE = 10000;
+
+    /**
+     * Heartbeats are sent several times per lease.
+     */
+    private static final int HEARTBEATS_PER_LEASE = 3;
+
+    private final SocketChannel channel;
+
+    private final Thread reader;
+
+    private final ScheduledExecutorService heartbeats;
+
+    private final Map<Long, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong requestIds = new AtomicLong();
+
+    private volatile IOException failure;
+
+    private volatile boolean closed;
+
+    public RemoteLockBackend(final InetSocketAddress address) throws IOException {
+        this(address, DEFAULT_LEASE);
+    }
+
+    /**
+     * Connect to the server.
+     *
+     * @param address     address of the LockServer
+     * @param leaseMillis the server releases keys of this backend if it is silent longer than this lease
+     */
+    public RemoteLockBackend(final InetSocketAddress address, final int leaseMillis) throws IOException {
+        this.channel = SocketChannel.open(address);
+        channel.socket().setTcpNoDelay(true);
+
+        write(LockProtocol.heartbeat(requestIds.incrementAndGet(), leaseMillis));
+
+        this.reader = new Thread(this::read, "metalock-backend-" + address);
+        reader.setDaemon(true);
+        reader.start();
+
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metalock-heartbeat-" + address);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = leaseMillis / HEARTBEATS_PER_LEASE;
+        heartbeats.scheduleAtFixedRate(() -> heartbeat(leaseMillis), period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Acquire keys on the server, wait uninterruptibly like the local locks do.
+     */
+    @Override
+    public void lock(final String[] sortedKeys) {
+        long requestId = requestIds.incrementAndGet();
+        CompletableFuture<Void> granted = new CompletableFuture<>();
+        pending.put(requestId, granted);
+        try {
+            write(LockProtocol.acquire(requestId, Thread.currentThread().getId(), sortedKeys));
+        } catch (IOException e) {
+            pending.remove(requestId);
+            throw new IllegalStateException("Lock server is not available", e);
+        }
+        if (failure != null) {
+            // the reader has stopped before the acquisition was registered
+            complete(requestId, new IllegalStateException("Connection to the lock server is closed", failure));
+        }
+
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    granted.get();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Keys are not acquired on the lock server", e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Release keys on the server without waiting for the response.
+     */
+    @Override
+    public void unlock(final String[] sortedKeys) {
+        try {
+            write(LockProtocol.release(requestIds.incrementAndGet(), Thread.currentThread().getId(), sortedKeys));
+        } catch (IOException e) {
+            throw new IllegalStateException("Lock server is not available", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        heartbeats.shutdownNow();
+        channel.close();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void heartbeat(final int leaseMillis) {
+        try {
+            write(LockProtocol.heartbeat(requestIds.incrementAndGet(), leaseMillis));
+        } catch (IOException e) {
+            LOG.debug("Heartbeat failed", e);
+        }
+    }
+
+    private synchronized void write(final ByteBuffer frame) throws IOException {
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+    }
+
+    /**
+     * Read responses of the server and complete waiting acquisitions.
+     */
+    private void read() {
+        ByteBuffer length = ByteBuffer.allocate(LockProtocol.LENGTH_SIZE);
+        try {
+            while (true) {
+                length.clear();
+                readFully(length);
+                ByteBuffer frame = ByteBuffer.allocate(length.getInt(0));
+                readFully(frame);
+                frame.flip();
+
+                byte operation = frame.get();
+                long requestId = frame.getLong();
+                if (operation == LockProtocol.GRANTED) {
+                    complete(requestId, null);
+                } else if (operation == LockProtocol.ERROR) {
+                    String message = LockProtocol.readString(frame);
+                    if (!complete(requestId, new IllegalStateException(message))) {
+                        LOG.error("Lock server error: {}", message);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+            if (closed) {
+                LOG.debug("Connection to the lock server is closed: {}", e.toString());
+            } else {
+                LOG.warn("Connection to the lock server is lost, its keys are released by the server: {}",
+                        e.toString());
+            }
+        }
+        for (Long requestId : pending.keySet()) {
+            complete(requestId, new IllegalStateException("Connection to the lock server is closed", failure));
+        }
+    }
+
+    private void readFully(final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private boolean complete(final long requestId, final RuntimeException error) {
+        CompletableFuture<Void> future = pending.remove(requestId);
+        if (future == null) {
+            return false;
+        }
+        if (error == null) {
+            future.complete(null);
+        } else {
+            future.completeExceptionally(error);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,90 @@
+package io.github.xantorohara.metalock;
+
+/**
+ * Diagnostic events of the lock waiting and holding.
+ * <p/>
+ * This is the Java 11+ implementation that records JFR events: MetaLockWait and MetaLockHold.
+ * Events shorter than their thresholds are not committed, so the volume stays low.
+ * Events are not even created while no JFR recording has them enabled (checked on the shared probe events),
+ * the aspects receive null in this case.
+ * <p/>
+ * Lock keys contain values of the method parameters, so they are recorded only
+ * when the "metalock.jfr.keys" system property is true.
+ *
+ * @author Xantorohara
+ */
+final class LockEvents {
+    static final String ACQUIRED = "Acquired";
+    static final String REJECTED = "Rejected";
+    static final String EXPIRED = "Expired";
+    static final String COMPLETED = "Completed";
+    static final String FAILED = "Failed";
+
+    private static final boolean RECORD_KEYS = Boolean.getBoolean("metalock.jfr.keys");
+
+    private static final MetaLockWaitEvent WAIT_PROBE = new MetaLockWaitEvent();
+
+    private static final MetaLockHoldEvent HOLD_PROBE = new MetaLockHoldEvent();
+
+    private LockEvents() {
+    }
+
+    static Object beginWait() {
+        if (!WAIT_PROBE.isEnabled()) {
+            return null;
+        }
+        MetaLockWaitEvent event = new MetaLockWaitEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endWait(final Object event, final String lockName, final String methodName, final String outcome) {
+        if (event == null) {
+            return;
+        }
+        MetaLockWaitEvent waitEvent = (MetaLockWaitEvent) event;
+        waitEvent.end();
+        if (waitEvent.shouldCommit()) {
+            waitEvent.name = MetaLockAspect.getName(lockName);
+            if (RECORD_KEYS) {
+                waitEvent.key = lockName;
+            }
+            waitEvent.method = methodName;
+            waitEvent.outcome = outcome;
+            waitEvent.commit();
+        }
+    }
+
+    static Object beginHold() {
+        if (!HOLD_PROBE.isEnabled()) {
+            return null;
+        }
+        MetaLockHoldEvent event = new MetaLockHoldEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endHold(final Object event, final String[] lockNames, final String methodName, final String outcome) {
+        if (event == null) {
+            return;
+        }
+        MetaLockHoldEvent holdEvent = (MetaLockHoldEvent) event;
+        holdEvent.end();
+        if (holdEvent.shouldCommit()) {
+            StringBuilder names = new StringBuilder();
+            for (String lockName : lockNames) {
+                if (names.length() > 0) {
+                    names.append(',');
+                }
+                names.append(MetaLockAspect.getName(lockName));
+            }
+            holdEvent.name = names.toString();
+            if (RECORD_KEYS) {
+                holdEvent.key = String.join(",", lockNames);
+            }
+            holdEvent.method = methodName;
+            holdEvent.outcome = outcome;
+            holdEvent.commit();
+        }
+    }
+}
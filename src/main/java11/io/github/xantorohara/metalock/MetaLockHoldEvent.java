@@ -0,0 +1,34 @@
+package io.github.xantorohara.metalock;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event: the thread holds the locks while the wrapped method is running.
+ *
+ * @author Xantorohara
+ */
+@Name("io.github.xantorohara.metalock.MetaLockHold")
+@Label("MetaLock Hold")
+@Category("MetaLock")
+@Description("Holding the locks acquired via @MetaLock or @NameLock")
+@StackTrace(false)
+@Threshold("50 ms")
+class MetaLockHoldEvent extends Event {
+    @Label("Lock Names")
+    String name;
+
+    @Label("Lock Keys")
+    String key;
+
+    @Label("Method")
+    String method;
+
+    @Label("Outcome")
+    String outcome;
+}
@@ -0,0 +1,34 @@
+package io.github.xantorohara.metalock;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event: the thread waits for the lock.
+ *
+ * @author Xantorohara
+ */
+@Name("io.github.xantorohara.metalock.MetaLockWait")
+@Label("MetaLock Wait")
+@Category("MetaLock")
+@Description("Waiting for the lock acquired via @MetaLock or @NameLock")
+@StackTrace(false)
+@Threshold("10 ms")
+class MetaLockWaitEvent extends Event {
+    @Label("Lock Name")
+    String name;
+
+    @Label("Lock Key")
+    String key;
+
+    @Label("Method")
+    String method;
+
+    @Label("Outcome")
+    String outcome;
+}
@@ -2,31 +2,76 @@ package io.github.xantorohara.metalock;
 
 import io.github.xantorohara.metalock.app.DemoApplication;
 import io.github.xantorohara.metalock.app.DemoRegistryService;
+import io.github.xantorohara.metalock.remote.LockServer;
+import io.github.xantorohara.metalock.remote.RemoteLockBackend;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.slf4j.Logger;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.Repeat;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import static io.github.xantorohara.metalock.TestUtils.runConcurrent;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayContaining;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @ContextConfiguration(classes = DemoApplication.class)
 public class MetaLockAspectTest {
-    protected final Logger log = LoggerFactory.getLogger(getClass());
+    protected final org.slf4j.Logger log = LoggerFactory.getLogger(getClass());
 
     @Autowired
     DemoRegistryService demoRegistryService;
 
+    @Autowired
+    MetaLockAspect metaLockAspect;
+
+    @Autowired
+    LockTraceRecorder lockTraceRecorder;
+
+    @Autowired
+    LockWatchdog lockWatchdog;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
     @Before
     public void before() {
         demoRegistryService.clearRecords();
@@ -88,6 +133,75 @@ public class MetaLockAspectTest {
 
     }
 
+    @Test
+    public void defaultListenerShouldLogEachStepAndFollowTheLevel() {
+        Logger logger = (Logger) LoggerFactory.getLogger(MetaLockAspect.class);
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        logger.addAppender(appender);
+        try {
+            demoRegistryService.saveRecord("L1", "V1");
+            logger.setLevel(Level.INFO);
+            demoRegistryService.saveRecord("L2", "V2");
+        } finally {
+            logger.setLevel(null);
+            logger.detachAppender(appender);
+        }
+
+        assertThat(messagesOf(appender, Thread.currentThread().getName()), contains(
+                "DemoRegistryService.saveRecord(..)",
+                "Locking Record§L1",
+                "Locked Record§L1",
+                "Before",
+                "After",
+                "Unlocking Record§L1",
+                "Removed Record§L1",
+                "Unlocked Record§L1"
+        ));
+    }
+
+    @Test
+    public void defaultListenerShouldNotCountInvocationsWithLoggingOff() {
+        Logger logger = (Logger) LoggerFactory.getLogger(MetaLockAspect.class);
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        logger.addAppender(appender);
+        try {
+            logger.setLevel(Level.DEBUG);
+            demoRegistryService.saveRecord("C1", "V1");
+            logger.setLevel(Level.INFO);
+            demoRegistryService.saveRecord("C2", "V2");
+            demoRegistryService.saveRecord("C3", "V3");
+            demoRegistryService.saveRecord("C4", "V4");
+            logger.setLevel(Level.DEBUG);
+            demoRegistryService.saveRecord("C5", "V5");
+        } finally {
+            logger.setLevel(null);
+            logger.detachAppender(appender);
+        }
+
+        String thread = Thread.currentThread().getName();
+        List<Long> ids = appender.list.stream()
+                .filter(e -> e.getThreadName().equals(thread))
+                .map(e -> e.getFormattedMessage().replaceFirst("^ML(\\d+)U .*", "$1"))
+                .map(Long::valueOf)
+                .distinct()
+                .collect(Collectors.toList());
+
+        assertThat(ids.size(), equalTo(2));
+        assertThat(ids.get(1), equalTo(ids.get(0) + 1));
+    }
+
+    /**
+     * Messages of the default listener logged by the thread, without the invocation ids.
+     */
+    private static List<String> messagesOf(ListAppender<ILoggingEvent> appender, String thread) {
+        return appender.list.stream()
+                .filter(e -> e.getThreadName().equals(thread))
+                .map(e -> e.getFormattedMessage().replaceFirst("^ML\\d+U ", ""))
+                .collect(Collectors.toList());
+    }
+
     @Test
     @Repeat(2)
     public void serialWritesShouldWork() throws InterruptedException {
@@ -188,4 +302,1005 @@ public class MetaLockAspectTest {
         ));
     }
 
-}
\ No newline at end of file
+    @Test
+    @Repeat(3)
+    public void nestedLockingOfTheSameUserShouldBeReentrant() throws InterruptedException {
+        runConcurrent(100,
+                () -> demoRegistryService.doForUser("Paul", "Smith",
+                        () -> demoRegistryService.addMoneyForUser("Paul", "Smith", 33)),
+                () -> demoRegistryService.addMoneyForUser("Paul", "Smith", 55)
+        );
+
+        List<String> actions = demoRegistryService.getAuditor().takeActions();
+
+        assertThat(actions, contains(
+                "Start for Paul Smith",
+                "Add 33 money for Paul Smith",
+                "Added 33 money for Paul Smith",
+                "Done for Paul Smith",
+                "Add 55 money for Paul Smith",
+                "Added 55 money for Paul Smith"
+        ));
+    }
+
+    @Test
+    public void spinningIncrementsOfTheSameCounterShouldBeSerial() throws InterruptedException {
+        Runnable increments = () -> {
+            for (int i = 0; i < 1000; i++) {
+                demoRegistryService.incrementCounter("Visits");
+            }
+        };
+
+        runConcurrent(0, increments, increments, increments, increments);
+
+        assertThat(demoRegistryService.incrementCounter("Visits"), equalTo(4001));
+    }
+
+    @Test
+    @Repeat(3)
+    public void waitersWithEarliestDeadlinesShouldBeServedFirst() throws InterruptedException {
+        runConcurrent(50,
+                () -> bookTicket("Alice", 0, 1000),
+                () -> bookTicket("Bob", 20000, 200),
+                () -> bookTicket("Carol", 10000, 200),
+                () -> bookTicket("Dave", 300, 200)
+        );
+
+        List<String> actions = demoRegistryService.getAuditor().takeActions();
+
+        assertThat(actions, contains(
+                "Booking for Alice",
+                "Expired for Dave",
+                "Booked for Alice",
+                "Booking for Carol",
+                "Booked for Carol",
+                "Booking for Bob",
+                "Booked for Bob"
+        ));
+    }
+
+    /**
+     * Dave's deadline expires about 550 ms before Alice releases the queue,
+     * Bob and Carol have deadlines far beyond the whole test.
+     */
+    private void bookTicket(String customer, long timeout, long bookingTime) {
+        if (timeout > 0) {
+            LockDeadline.set(timeout, TimeUnit.MILLISECONDS);
+        }
+        try {
+            demoRegistryService.bookTicket("Cinema", customer, bookingTime);
+        } catch (LockTimeoutException e) {
+            demoRegistryService.getAuditor().logAction("Expired for " + customer);
+        } finally {
+            LockDeadline.clear();
+        }
+    }
+
+    @Test
+    public void watchdogShouldInterruptTheStuckOwner() {
+        lockWatchdog.setInterruptOwner(true);
+        long started = System.currentTimeMillis();
+        try {
+            demoRegistryService.runSlowTask("Import");
+        } finally {
+            lockWatchdog.setInterruptOwner(false);
+        }
+        long elapsed = System.currentTimeMillis() - started;
+
+        List<String> actions = demoRegistryService.getAuditor().takeActions();
+
+        assertThat(actions, contains("Running Import", "Finished Import"));
+        assertThat(elapsed, lessThan(5000L));
+    }
+
+    @Test
+    public void watchdogShouldReportTheWaitersOfTheStuckOwner() throws InterruptedException {
+        Logger logger = (Logger) LoggerFactory.getLogger(LockWatchdog.class);
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        logger.addAppender(appender);
+        lockWatchdog.setInterruptOwner(true);
+        try {
+            runConcurrent(20,
+                    () -> demoRegistryService.runSlowTask("Export"),
+                    () -> demoRegistryService.runSlowTask("Export"),
+                    () -> demoRegistryService.runSlowTask("Export")
+            );
+        } finally {
+            lockWatchdog.setInterruptOwner(false);
+            logger.detachAppender(appender);
+        }
+
+        List<String> reports = appender.list.stream()
+                .map(ILoggingEvent::getFormattedMessage)
+                .filter(message -> message.startsWith("Lock Slow§Export is held"))
+                .map(message -> message.substring(message.indexOf("waiters:")))
+                .collect(Collectors.toList());
+
+        assertThat(reports, contains("waiters: 2", "waiters: 1", "waiters: 0"));
+        assertThat(demoRegistryService.getAuditor().takeActions().size(), equalTo(6));
+    }
+
+    @Test
+    @Repeat(3)
+    public void callersOverTheWaitersLimitShouldBeRejected() throws InterruptedException {
+        Runnable buildReport = () -> {
+            try {
+                demoRegistryService.buildReport("Monthly");
+            } catch (LockRejectedException e) {
+                demoRegistryService.getAuditor().logAction("Rejected " + e.getLockName());
+            }
+        };
+
+        runConcurrent(50, buildReport, buildReport, buildReport);
+
+        List<String> actions = demoRegistryService.getAuditor().takeActions();
+
+        assertThat(actions, contains(
+                "Building Monthly",
+                "Rejected Report§Monthly",
+                "Built Monthly",
+                "Building Monthly",
+                "Built Monthly"
+        ));
+    }
+
+    @Test
+    @Repeat(3)
+    public void rejectedKeyShouldCancelReservationsOfThePreviousKeys() throws InterruptedException {
+        Logger logger = (Logger) LoggerFactory.getLogger(MetaLockAspect.class);
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        logger.addAppender(appender);
+        String[] publisher = new String[1];
+        try {
+            runConcurrent(50,
+                    () -> demoRegistryService.buildReport("Monthly"),
+                    () -> demoRegistryService.buildReport("Monthly"),
+                    () -> {
+                        publisher[0] = Thread.currentThread().getName();
+                        try {
+                            demoRegistryService.publishReport("Annual", "Monthly");
+                        } catch (LockRejectedException e) {
+                            demoRegistryService.getAuditor().logAction("Rejected " + e.getLockName());
+                        }
+                    });
+        } finally {
+            logger.detachAppender(appender);
+        }
+
+        assertThat(demoRegistryService.getAuditor().takeActions(), contains(
+                "Building Monthly",
+                "Rejected Report§Monthly",
+                "Built Monthly",
+                "Building Monthly",
+                "Built Monthly"
+        ));
+        // Book§Annual was reserved before Report§Monthly, each started key is reported as not acquired
+        assertThat(messagesOf(appender, publisher[0]), contains(
+                "DemoRegistryService.publishReport(..)",
+                "Locking Book§Annual",
+                "Locking Report§Monthly",
+                "Rejected Report§Monthly",
+                "Rejected Book§Annual"
+        ));
+        assertThat(metaLockAspect.getNamedLocks().containsKey("Book§Annual"), equalTo(false));
+    }
+
+    @Test
+    @Repeat(3)
+    public void expiredKeyShouldReleaseTheHeadAndAbandonTheTail() throws InterruptedException {
+        Logger logger = (Logger) LoggerFactory.getLogger(MetaLockAspect.class);
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        logger.addAppender(appender);
+        String[] customer = new String[1];
+        try {
+            runConcurrent(50,
+                    () -> demoRegistryService.bookTicket("Cinema2", "Alice", 300),
+                    () -> {
+                        customer[0] = Thread.currentThread().getName();
+                        LockDeadline.set(100, TimeUnit.MILLISECONDS);
+                        try {
+                            demoRegistryService.bookTicketWithVoucher("Bob", "Cinema2", "V1");
+                        } catch (LockTimeoutException e) {
+                            demoRegistryService.getAuditor().logAction("Expired for Bob");
+                        } finally {
+                            LockDeadline.clear();
+                        }
+                    });
+        } finally {
+            logger.detachAppender(appender);
+        }
+
+        assertThat(demoRegistryService.getAuditor().takeActions(), contains(
+                "Booking for Alice",
+                "Expired for Bob",
+                "Booked for Alice"
+        ));
+        // Customer§Bob was acquired and released, Voucher§V1 was only reserved
+        assertThat(messagesOf(appender, customer[0]), contains(
+                "DemoRegistryService.bookTicketWithVoucher(..)",
+                "Locking Customer§Bob",
+                "Locked Customer§Bob",
+                "Locking Ticket§Cinema2",
+                "Rejected Ticket§Cinema2",
+                "Unlocking Customer§Bob",
+                "Removed Customer§Bob",
+                "Unlocked Customer§Bob"
+        ));
+        assertThat(metaLockAspect.getNamedLocks().containsKey("Customer§Bob"), equalTo(false));
+        assertThat(metaLockAspect.getNamedLocks().containsKey("Voucher§V1"), equalTo(false));
+    }
+
+    @Test
+    @Repeat(2)
+    public void concurrentCallersShouldNotOvershootTheWaitersLimit() throws InterruptedException {
+        Thread owner = new Thread(() -> demoRegistryService.buildReport("R9"));
+        owner.start();
+        Thread.sleep(50);
+
+        Runnable[] callers = new Runnable[8];
+        CyclicBarrier barrier = new CyclicBarrier(callers.length);
+        Arrays.fill(callers, (Runnable) () -> {
+            try {
+                barrier.await();
+                demoRegistryService.buildReport("R9");
+            } catch (LockRejectedException e) {
+                demoRegistryService.getAuditor().logAction("Rejected " + e.getLockName());
+            } catch (InterruptedException | BrokenBarrierException e) {
+                demoRegistryService.getAuditor().logAction("Broken " + e);
+            }
+        });
+        runConcurrent(0, callers);
+        owner.join();
+
+        List<String> actions = demoRegistryService.getAuditor().takeActions();
+
+        // Reservations are counted under the stripe, so only one caller waits for the owner
+        assertThat(actions.stream().filter("Rejected Report§R9"::equals).count(), equalTo(7L));
+        assertThat(actions.stream().filter("Built R9"::equals).count(), equalTo(2L));
+        assertThat(metaLockAspect.getNamedLocks().containsKey("Report§R9"), equalTo(false));
+    }
+
+    @Test
+    @Repeat(3)
+    public void namespaceShouldApplyItsPolicyAndBeReloadable() throws InterruptedException {
+        Runnable bookSeat = () -> {
+            try {
+                demoRegistryService.bookSeat("S1");
+            } catch (LockRejectedException e) {
+                demoRegistryService.getAuditor().logAction("Rejected " + e.getLockName());
+            }
+        };
+
+        runConcurrent(50, bookSeat, bookSeat, bookSeat);
+
+        assertThat(demoRegistryService.getAuditor().takeActions(), contains(
+                "Booking S1",
+                "Rejected Seat§S1",
+                "Booked S1",
+                "Booking S1",
+                "Booked S1"
+        ));
+        assertThat(metaLockAspect.getNamedLocks().containsKey("Seat§S1"), equalTo(false));
+
+        LockNamespace seat = metaLockAspect.getNamespaces().get(0);
+        assertThat(seat.getName(), equalTo("Seat"));
+        assertThat(seat.isEvict(), equalTo(false));
+
+        seat.setMaxWaiters(0);
+        metaLockAspect.setNamespaces(Collections.singletonList(seat));
+        try {
+            runConcurrent(50, bookSeat, bookSeat, bookSeat);
+        } finally {
+            seat.setMaxWaiters(1);
+            metaLockAspect.setNamespaces(Collections.singletonList(seat));
+        }
+
+        assertThat(demoRegistryService.getAuditor().takeActions(), contains(
+                "Booking S1", "Booked S1",
+                "Booking S1", "Booked S1",
+                "Booking S1", "Booked S1"
+        ));
+    }
+
+    @Test
+    public void namespaceShouldNotBeRegisteredForTheUsedName() {
+        demoRegistryService.saveRecord("N1", "V1");
+        demoRegistryService.getAuditor().takeActions();
+        try {
+            metaLockAspect.setNamespaces(Collections.singletonList(new LockNamespace("Record")));
+        } catch (IllegalStateException e) {
+            demoRegistryService.getAuditor().logAction(e.getMessage());
+        }
+
+        assertThat(demoRegistryService.getAuditor().takeActions(), contains(
+                "Namespace Record is registered after its name is used"
+        ));
+        assertThat(metaLockAspect.getNamespaces().stream().map(LockNamespace::getName).collect(Collectors.toList()),
+                contains("Seat"));
+    }
+
+    @Test
+    @Repeat(3)
+    public void allOrNothingShouldNotHoldLocksWhileWaiting() throws InterruptedException {
+        metaLockAspect.setAcquireStrategy(AcquireStrategy.ALL_OR_NOTHING);
+        try {
+            runConcurrent(50,
+                    () -> demoRegistryService.auditAccount("B"),
+                    () -> demoRegistryService.transferMoney("A", "B"),
+                    () -> demoRegistryService.auditAccount("A")
+            );
+        } finally {
+            metaLockAspect.setAcquireStrategy(AcquireStrategy.ORDERED);
+        }
+
+        List<String> actions = demoRegistryService.getAuditor().takeActions();
+
+        assertThat(actions, contains(
+                "Auditing B",
+                "Auditing A",
+                "Audited B",
+                "Audited A",
+                "Transfer A B",
+                "Transferred A B"
+        ));
+    }
+
+    @Test
+    public void hotKeyTrackerShouldRankTheMostContendedKey() throws InterruptedException {
+        metaLockAspect.setHotKeyTracker(new HotKeyTracker(2));
+        try {
+            runConcurrent(20,
+                    () -> demoRegistryService.addMoneyForUser("Paul", "Smith", 33),
+                    () -> demoRegistryService.addMoneyForUser("Paul", "Smith", 55),
+                    () -> demoRegistryService.addMoneyForUser("Paul", "Smith", 77),
+                    () -> demoRegistryService.addMoneyForUser("Will", "Smith", 22),
+                    () -> demoRegistryService.addMoneyForUser("Will", "Smith", 44)
+            );
+
+            List<HotKeyTracker.HotKey> hotKeys = metaLockAspect.getHotKeyTracker().getHotKeys();
+
+            assertThat(hotKeys.get(0).getLockName(), equalTo("User§Paul§Smith"));
+            assertThat(hotKeys.get(0).getWaits(), equalTo(2L));
+            assertThat(hotKeys.get(1).getLockName(), equalTo("User§Will§Smith"));
+            assertThat(hotKeys.get(1).getWaits(), equalTo(1L));
+        } finally {
+            metaLockAspect.setHotKeyTracker(null);
+            demoRegistryService.getAuditor().takeActions();
+        }
+    }
+
+    @Test
+    @Repeat(3)
+    public void compactLocksOfTheSameRowShouldBeSerial() throws InterruptedException {
+        runConcurrent(50,
+                () -> demoRegistryService.importRow(1),
+                () -> demoRegistryService.importRow(2),
+                () -> demoRegistryService.importRow(1)
+        );
+
+        List<String> actions = demoRegistryService.getAuditor().takeActions();
+
+        assertThat(actions, contains(
+                "Importing 1",
+                "Importing 2",
+                "Imported 1",
+                "Importing 1",
+                "Imported 2",
+                "Imported 1"
+        ));
+        assertThat(metaLockAspect.getCompactLocks().size(), equalTo(0));
+    }
+
+    @Test
+    public void optimisticAndExclusiveLocksShouldNotShareTheName() {
+        demoRegistryService.refreshRate("GBP", "Bank", 0);
+        try {
+            demoRegistryService.setRate("GBP");
+        } catch (IllegalStateException e) {
+            demoRegistryService.getAuditor().logAction(e.getMessage().substring(0, e.getMessage().indexOf(':')));
+        }
+
+        List<String> actions = demoRegistryService.getAuditor().takeActions();
+
+        assertThat(actions, contains(
+                "Refreshing GBP Bank",
+                "Refreshed GBP Bank",
+                "@MetaLocks with different modes can't share the name \"Rate\""
+        ));
+    }
+
+    @Test
+    public void compactAndNonCompactLocksShouldNotShareTheName() {
+        demoRegistryService.importRow(1);
+        try {
+            demoRegistryService.updateRow(1);
+        } catch (IllegalStateException e) {
+            demoRegistryService.getAuditor().logAction(e.getMessage().substring(0, e.getMessage().indexOf(':')));
+        }
+
+        List<String> actions = demoRegistryService.getAuditor().takeActions();
+
+        assertThat(actions, contains(
+                "Importing 1",
+                "Imported 1",
+                "Compact and non-compact @MetaLocks can't share the name \"Row\""
+        ));
+        assertThat(metaLockAspect.getCompactLocks().size(), equalTo(0));
+    }
+
+    @Test
+    public void compactLocksTableShouldHoldManyKeys() {
+        CompactLockTable table = new CompactLockTable();
+        for (long key = 0; key < 100000; key++) {
+            table.lock(key);
+        }
+        table.lock(777);
+        assertThat(table.size(), equalTo(100000));
+        assertThat(table.isHeldByCurrentThread(777), equalTo(true));
+
+        for (long key = 0; key < 100000; key++) {
+            table.unlock(key);
+        }
+        assertThat(table.size(), equalTo(1));
+        table.unlock(777);
+        assertThat(table.size(), equalTo(0));
+        assertThat(table.isHeldByCurrentThread(777), equalTo(false));
+    }
+
+    @Test
+    public void asyncMailsToTheSameRecipientShouldBeSentInOrder() {
+        List<CompletableFuture<String>> mails = Arrays.asList(
+                demoRegistryService.sendMail("Bob", "Mail1"),
+                demoRegistryService.sendMail("Bob", "Mail2"),
+                demoRegistryService.sendMail("Ann", "Mail3"),
+                demoRegistryService.sendMail("Bob", "Mail4")
+        );
+        demoRegistryService.getAuditor().logAction("Submitted to Bob");
+
+        List<String> results = mails.stream().map(CompletableFuture::join).collect(Collectors.toList());
+        List<String> bobActions = demoRegistryService.getAuditor().takeActions().stream()
+                .filter(action -> action.endsWith("Bob")).collect(Collectors.toList());
+
+        // The caller doesn't wait: Mail4 can't be sent before Mail1 and Mail2
+        assertThat(bobActions.indexOf("Submitted to Bob"), lessThan(bobActions.indexOf("Sending Mail4 to Bob")));
+        bobActions.remove("Submitted to Bob");
+        assertThat(results, contains("Mail1", "Mail2", "Mail3", "Mail4"));
+        assertThat(bobActions, contains(
+                "Sending Mail1 to Bob",
+                "Sent Mail1 to Bob",
+                "Sending Mail2 to Bob",
+                "Sent Mail2 to Bob",
+                "Sending Mail4 to Bob",
+                "Sent Mail4 to Bob"
+        ));
+    }
+
+    @Test
+    public void keyedExecutorShouldFailTasksQueuedAfterTheRejectedOne() {
+        KeyedSerialExecutor[] keyed = new KeyedSerialExecutor[1];
+        List<CompletableFuture<String>> queued = new ArrayList<>();
+        // Other caller appends its task while the first task of the key is handed to the pool
+        keyed[0] = new KeyedSerialExecutor(task -> {
+            queued.add(keyed[0].submit("Bob", () -> "Mail2"));
+            throw new RejectedExecutionException("Pool is full");
+        });
+
+        try {
+            keyed[0].submit("Bob", () -> "Mail1");
+        } catch (RejectedExecutionException e) {
+            queued.add(null);
+        }
+
+        assertThat(queued.size(), equalTo(2));
+        assertThat(queued.get(1), nullValue());
+        assertThat(queued.get(0).isCompletedExceptionally(), equalTo(true));
+        assertThat(keyed[0].size(), equalTo(0));
+    }
+
+    @Test
+    public void keyedExecutorShouldPropagateErrorsAndRunTheNextTask() {
+        List<Runnable> accepted = new ArrayList<>();
+        KeyedSerialExecutor keyed = new KeyedSerialExecutor(accepted::add);
+        CompletableFuture<String> failed = keyed.<String>submit("Bob", () -> {
+            throw new AssertionError("Mail1");
+        });
+        CompletableFuture<String> next = keyed.submit("Bob", () -> "Mail2");
+
+        List<String> errors = new ArrayList<>();
+        try {
+            accepted.get(0).run();
+        } catch (AssertionError e) {
+            errors.add(e.getMessage());
+        }
+        accepted.get(1).run();
+
+        assertThat(errors, contains("Mail1"));
+        assertThat(failed.isCancelled(), equalTo(true));
+        assertThat(next.join(), equalTo("Mail2"));
+        assertThat(keyed.size(), equalTo(0));
+    }
+
+    @Test
+    public void keyedExecutorShouldDrainTheRejectedQueueInLoop() {
+        List<Runnable> accepted = new ArrayList<>();
+        KeyedSerialExecutor keyed = new KeyedSerialExecutor(task -> {
+            if (!accepted.isEmpty()) {
+                throw new RejectedExecutionException("Pool is full");
+            }
+            accepted.add(task);
+        });
+        int[] completed = new int[1];
+        for (int i = 0; i < 100000; i++) {
+            keyed.execute("Bob", () -> completed[0]++);
+        }
+
+        accepted.get(0).run();
+
+        assertThat(completed[0], equalTo(100000));
+        assertThat(keyed.size(), equalTo(0));
+    }
+
+    @Test
+    @Repeat(3)
+    public void manyCellsOfOneThreadShouldBeEscalatedToTheNameLock() throws InterruptedException {
+        List<String> cellLocks = new ArrayList<>();
+
+        Runnable fillCells = () -> {
+            demoRegistryService.getWorker().doSomeWork(200);
+            metaLockAspect.getNamedLocks().keySet().stream()
+                    .filter(lockName -> lockName.startsWith("Cell")).forEach(cellLocks::add);
+        };
+        for (String cell : new String[]{"A5", "A4", "A3", "A2", "A1"}) {
+            Runnable action = fillCells;
+            fillCells = () -> demoRegistryService.fillCell(cell, action);
+        }
+
+        runConcurrent(50, fillCells, () -> demoRegistryService.fillCell("B1", () -> {
+        }));
+
+        List<String> actions = demoRegistryService.getAuditor().takeActions();
+
+        assertThat(actions, contains(
+                "Fill A1", "Fill A2", "Fill A3", "Fill A4", "Fill A5",
+                "Filled A5", "Filled A4", "Filled A3", "Filled A2", "Filled A1",
+                "Fill B1", "Filled B1"
+        ));
+        assertThat(cellLocks, empty());
+    }
+
+    @Test
+    @Repeat(2)
+    public void waiterForTheEscalatedNameShouldHonourTheDeadline() throws InterruptedException {
+        Runnable fillCells = () -> demoRegistryService.getWorker().doSomeWork(300);
+        for (String cell : new String[]{"E4", "E3", "E2", "E1"}) {
+            Runnable action = fillCells;
+            fillCells = () -> demoRegistryService.fillCell(cell, action);
+        }
+
+        runConcurrent(50, fillCells, () -> {
+            LockDeadline.set(100, TimeUnit.MILLISECONDS);
+            try {
+                demoRegistryService.fillCells("F1", "F2", () -> {
+                });
+            } catch (LockTimeoutException e) {
+                demoRegistryService.getAuditor().logAction("Expired " + e.getLockName());
+            } finally {
+                LockDeadline.clear();
+            }
+        });
+
+        List<String> actions = demoRegistryService.getAuditor().takeActions();
+
+        // E4 escalates the name, F1 waits at the gate until its deadline
+        assertThat(actions, contains(
+                "Fill E1", "Fill E2", "Fill E3", "Fill E4",
+                "Expired Cell§F1",
+                "Filled E4", "Filled E3", "Filled E2", "Filled E1"
+        ));
+        demoRegistryService.fillCells("F1", "F2", () -> {
+        });
+        assertThat(demoRegistryService.getAuditor().takeActions(), contains("Fill F1 F2", "Filled F1 F2"));
+    }
+
+    @Test
+    @Repeat(3)
+    public void duplicatedNestedAndEscalatedKeysShouldBeReleasedOnce() throws InterruptedException {
+        List<String> cellLocks = new ArrayList<>();
+
+        Runnable fillCells = () -> demoRegistryService.fillCell("D1",
+                () -> demoRegistryService.fillCell("D2",
+                        () -> demoRegistryService.fillCells("D3", "D3",
+                                () -> demoRegistryService.fillCells("D1", "D4", () -> {
+                                    demoRegistryService.getWorker().doSomeWork(200);
+                                    metaLockAspect.getNamedLocks().keySet().stream()
+                                            .filter(lockName -> lockName.startsWith("Cell")).forEach(cellLocks::add);
+                                }))));
+
+        runConcurrent(50, fillCells, () -> demoRegistryService.fillCell("D2", () -> {
+        }));
+
+        List<String> actions = demoRegistryService.getAuditor().takeActions();
+
+        // D3 is duplicated, D1 is nested, so D4 is the 4th key of the thread and escalates the name
+        assertThat(actions, contains(
+                "Fill D1", "Fill D2", "Fill D3 D3", "Fill D1 D4",
+                "Filled D1 D4", "Filled D3 D3", "Filled D2", "Filled D1",
+                "Fill D2", "Filled D2"
+        ));
+        assertThat(cellLocks, empty());
+        assertThat(metaLockAspect.getNamedLocks().keySet().stream()
+                .filter(lockName -> lockName.startsWith("Cell")).count(), equalTo(0L));
+    }
+
+    @Test
+    public void recycledLockShouldForgetTheDeadlineQueueAndTheCondition() throws InterruptedException {
+        ReservedLock lock = new ReservedLock(true);
+        lock.reserve();
+        lock.acquire(null, false, 0);
+        Object condition = lock.getCondition();
+        lock.unlockHeld();
+        lock.release();
+        lock.recycle();
+
+        lock.reserve();
+        lock.acquire(null);
+        try {
+            assertThat(lock.getCondition(), not(sameInstance(condition)));
+            assertThat(lock.getCondition().awaitNanos(TimeUnit.MILLISECONDS.toNanos(10)), lessThanOrEqualTo(0L));
+        } finally {
+            lock.unlockHeld();
+            lock.release();
+        }
+    }
+
+    @Test
+    public void releasedLocksShouldBeReusedForNewKeys() {
+        List<Object> locks = new ArrayList<>();
+        demoRegistryService.fillCell("X1", () -> locks.add(metaLockAspect.getNamedLocks().get("Cell§X1")));
+        demoRegistryService.fillCell("X2", () -> locks.add(metaLockAspect.getNamedLocks().get("Cell§X2")));
+
+        assertThat(locks.get(0), notNullValue());
+        assertThat(locks.get(1), sameInstance(locks.get(0)));
+        assertThat(metaLockAspect.getNamedLocks().containsKey("Cell§X1"), equalTo(false));
+        assertThat(metaLockAspect.getNamedLocks().containsKey("Cell§X2"), equalTo(false));
+    }
+
+    @Test
+    public void forkJoinWorkersWaitingForLocksShouldNotStarveThePool() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(1);
+        CountDownLatch held = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> demoRegistryService.fillCell("Pool", () -> {
+            held.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        try {
+            holder.start();
+            held.await();
+
+            ForkJoinTask<?> fill = pool.submit(() -> demoRegistryService.fillCell("Pool", () -> {
+            }));
+            while (metaLockAspect.getNamedLocks().get("Cell§Pool").getQueueLength() == 0) {
+                Thread.sleep(10);
+            }
+
+            // The only worker of the pool is blocked, but the independent task still runs
+            assertThat(pool.submit(() -> "Independent").get(5, TimeUnit.SECONDS), equalTo("Independent"));
+            assertThat(fill.isDone(), equalTo(false));
+
+            release.countDown();
+            fill.get(5, TimeUnit.SECONDS);
+            holder.join();
+        } finally {
+            release.countDown();
+            pool.shutdown();
+        }
+
+        assertThat(demoRegistryService.getAuditor().takeActions(), contains(
+                "Fill Pool", "Filled Pool", "Fill Pool", "Filled Pool"
+        ));
+    }
+
+    @Test
+    @Repeat(3)
+    public void conflictingOptimisticCallShouldBeRepeated() throws InterruptedException {
+        runConcurrent(50,
+                () -> demoRegistryService.refreshRate("USD", "Bank", 200),
+                () -> demoRegistryService.refreshRate("USD", "Market", 200)
+        );
+
+        List<String> actions = demoRegistryService.getAuditor().takeActions();
+
+        assertThat(actions, contains(
+                "Refreshing USD Bank",
+                "Refreshing USD Market",
+                "Refreshed USD Bank",
+                "Refreshed USD Market",
+                "Refreshing USD Market",
+                "Refreshed USD Market"
+        ));
+        assertThat(metaLockAspect.getNamedLocks().containsKey("Rate§USD"), equalTo(false));
+    }
+
+    @Test
+    @Repeat(3)
+    public void optimisticCallShouldFallBackToTheExclusiveLock() throws InterruptedException {
+        runConcurrent(50,
+                () -> demoRegistryService.refreshRate("EUR", "Bank", 200),
+                () -> {
+                    for (int i = 0; i < 8; i++) {
+                        demoRegistryService.refreshRate("EUR", "Market", 0);
+                        demoRegistryService.getWorker().doSomeWork(100);
+                    }
+                }
+        );
+
+        List<String> actions = demoRegistryService.getAuditor().takeActions();
+
+        assertThat(actions.stream().filter("Refreshing EUR Bank"::equals).count(), equalTo(3L));
+        int exclusive = actions.lastIndexOf("Refreshing EUR Bank");
+        assertThat(actions.get(exclusive + 1), equalTo("Refreshed EUR Bank"));
+        assertThat(actions.stream().filter("Refreshed EUR Market"::equals).count(), greaterThanOrEqualTo(8L));
+    }
+
+    @Test
+    public void generatedKeysShouldMatchTheParameterNames() throws Exception {
+        Method method = DemoRegistryService.class.getMethod("addMoneyForUser", String.class, String.class, int.class);
+        assertThat(MetaLockAspect.getMethodKey(method),
+                equalTo("addMoneyForUser(java.lang.String,java.lang.String,int)"));
+
+        MetaLockKeys metaLockKeys = (MetaLockKeys) Class.forName(DemoRegistryService.class.getName()
+                + MetaLockKeys.SUFFIX).newInstance();
+        String[] lockNames = metaLockKeys.get(MetaLockAspect.getMethodKey(method))
+                .lockNames(new Object[]{"Paul", null, 33});
+
+        assertThat(lockNames, arrayContaining(MetaLockAspect.getLockName("User",
+                new String[]{"firstName", "lastName"},
+                new String[]{"firstName", "lastName", "amountOfMoney"}, new Object[]{"Paul", null, 33})));
+    }
+
+    @Test
+    @Repeat(3)
+    public void jobWaiterShouldWakeUpWhenTheJobIsUpdated() throws InterruptedException {
+        runConcurrent(50,
+                () -> {
+                    try {
+                        demoRegistryService.awaitJob("Job1", "Done", 5000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                },
+                () -> demoRegistryService.updateJob("Job1", "Running"),
+                () -> demoRegistryService.updateJob("Job1", "Done")
+        );
+
+        List<String> actions = demoRegistryService.getAuditor().takeActions();
+
+        // The waiter is woken up by the updates, not by the timeout
+        assertThat(actions, contains(
+                "Awaiting Job1",
+                "Updated Job1 Running",
+                "Updated Job1 Done",
+                "Awaited Job1 Done"
+        ));
+        assertThat(metaLockAspect.getNamedLocks().containsKey("Job§Job1"), equalTo(false));
+    }
+
+    @Test
+    public void traceShouldShowTheConvoyOfTheKey() throws InterruptedException {
+        lockTraceRecorder.clear();
+        runConcurrent(50,
+                () -> demoRegistryService.saveRecord("T1", "V1"),
+                () -> demoRegistryService.saveRecord("T1", "V2")
+        );
+
+        List<String> events = Arrays.asList(lockTraceRecorder.toJson().split("\n"));
+
+        List<double[]> holds = events.stream()
+                .filter(e -> e.contains("\"ph\":\"X\",\"pid\":2,"))
+                .map(MetaLockAspectTest::timeSpan)
+                .collect(Collectors.toList());
+        assertThat(holds.size(), equalTo(2));
+        assertThat(holds.get(0)[1], greaterThanOrEqualTo(150_000.0));
+        assertThat(holds.get(0)[0] + holds.get(0)[1], lessThanOrEqualTo(holds.get(1)[0]));
+
+        List<double[]> waits = events.stream()
+                .filter(e -> e.contains("\"name\":\"Wait Record§T1\""))
+                .map(MetaLockAspectTest::timeSpan)
+                .sorted(Comparator.comparingDouble(span -> -span[1]))
+                .collect(Collectors.toList());
+        assertThat(waits.size(), equalTo(2));
+        assertThat(waits.get(0)[1], greaterThanOrEqualTo(100_000.0));
+        assertThat(events, hasItem(containsString("\"name\":\"thread_name\",\"args\":{\"name\":\"Record§T1\"}")));
+    }
+
+    /**
+     * Timestamp and duration of the trace event in microseconds.
+     */
+    private static double[] timeSpan(String event) {
+        Matcher matcher = Pattern.compile("\"ts\":([0-9.]+),\"dur\":([0-9.]+)").matcher(event);
+        assertThat(matcher.find(), equalTo(true));
+        return new double[]{Double.parseDouble(matcher.group(1)), Double.parseDouble(matcher.group(2))};
+    }
+
+    @Test
+    public void failedReleaseInTheBackendShouldNotMaskTheOutcome() {
+        metaLockAspect.setBackend(new LockBackend() {
+            @Override
+            public void lock(String[] sortedKeys) {
+            }
+
+            @Override
+            public void unlock(String[] sortedKeys) {
+                throw new IllegalStateException("Lock server is not available");
+            }
+        });
+        try {
+            demoRegistryService.saveRecord("B1", "V1");
+            demoRegistryService.fillCells("B1", "B2", () -> {
+                throw new IllegalArgumentException("Cells are full");
+            });
+        } catch (RuntimeException e) {
+            demoRegistryService.getAuditor().logAction(e.getMessage());
+        } finally {
+            metaLockAspect.setBackend(null);
+        }
+
+        assertThat(demoRegistryService.getAuditor().takeActions(), contains(
+                "Save select B1",
+                "Save insert B1 V1",
+                "Fill B1 B2",
+                "Cells are full"
+        ));
+        assertThat(metaLockAspect.getNamedLocks().containsKey("Record§B1"), equalTo(false));
+        assertThat(metaLockAspect.getNamedLocks().containsKey("Cell§B1"), equalTo(false));
+    }
+
+    @Test
+    public void conditionsShouldBeRejectedWithTheBackend() throws InterruptedException {
+        metaLockAspect.setBackend(new LockBackend() {
+            @Override
+            public void lock(String[] sortedKeys) {
+            }
+
+            @Override
+            public void unlock(String[] sortedKeys) {
+            }
+        });
+        try {
+            demoRegistryService.awaitJob("Job2", "Done", 100);
+        } catch (IllegalStateException e) {
+            demoRegistryService.getAuditor().logAction(e.getMessage());
+        } finally {
+            metaLockAspect.setBackend(null);
+        }
+
+        assertThat(demoRegistryService.getAuditor().takeActions(), contains(
+                "Awaiting Job2",
+                "Conditions are not supported with the LockBackend"
+        ));
+        assertThat(metaLockAspect.getNamedLocks().containsKey("Job§Job2"), equalTo(false));
+    }
+
+    @Test
+    public void keysHeldByAnotherJvmShouldBeAwaitedViaTheLockServer() throws Exception {
+        try (LockServer server = new LockServer(0)) {
+            server.start();
+            try (RemoteLockBackend backend = new RemoteLockBackend(server.getAddress());
+                 RemoteLockBackend anotherJvm = new RemoteLockBackend(server.getAddress())) {
+                metaLockAspect.setBackend(backend);
+
+                runConcurrent(50,
+                        () -> {
+                            anotherJvm.lock(new String[]{"Record§R1"});
+                            demoRegistryService.getAuditor().logAction("Remote save R1");
+                            demoRegistryService.getWorker().doSomeWork(200);
+                            demoRegistryService.getAuditor().logAction("Remote saved R1");
+                            anotherJvm.unlock(new String[]{"Record§R1"});
+                        },
+                        () -> demoRegistryService.saveRecord("R1", "V1")
+                );
+            } finally {
+                metaLockAspect.setBackend(null);
+            }
+        }
+
+        List<String> actions = demoRegistryService.getAuditor().takeActions();
+
+        assertThat(actions, contains(
+                "Remote save R1",
+                "Remote saved R1",
+                "Save select R1",
+                "Save insert R1 V1"
+        ));
+    }
+
+    @Test
+    @Repeat(3)
+    public void transactionScopedInvoiceShouldBeReleasedAfterTheCommit() throws InterruptedException {
+        runConcurrent(50,
+                () -> transactionTemplate.execute(status -> {
+                    demoRegistryService.payInvoice("Inv1");
+                    demoRegistryService.getWorker().doSomeWork(200);
+                    demoRegistryService.getAuditor().logAction("Committing Inv1");
+                    return null;
+                }),
+                () -> demoRegistryService.payInvoice("Inv1")
+        );
+
+        List<String> actions = demoRegistryService.getAuditor().takeActions();
+
+        assertThat(actions, contains(
+                "Paying Inv1",
+                "Paid Inv1",
+                "Committing Inv1",
+                "Paying Inv1",
+                "Paid Inv1"
+        ));
+        assertThat(metaLockAspect.getNamedLocks().containsKey("Invoice§Inv1"), equalTo(false));
+    }
+
+    @Test
+    public void transactionScopedCallInsideTheOpenTransactionShouldBeReportedOnce() {
+        Logger logger = (Logger) LoggerFactory.getLogger(MetaLockAspect.class);
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        logger.addAppender(appender);
+        try {
+            demoRegistryService.refundInvoice("Inv3");
+            transactionTemplate.execute(status -> {
+                demoRegistryService.refundInvoice("Inv3");
+                return null;
+            });
+            transactionTemplate.execute(status -> {
+                demoRegistryService.refundInvoice("Inv3");
+                return null;
+            });
+        } finally {
+            logger.detachAppender(appender);
+        }
+
+        List<String> warnings = appender.list.stream()
+                .filter(e -> e.getLevel() == Level.WARN)
+                .map(ILoggingEvent::getFormattedMessage)
+                .collect(Collectors.toList());
+        assertThat(warnings, contains("DemoRegistryService.refundInvoice(..) locks transaction-scoped keys "
+                + "inside the already open transaction, the data it has read before the call may be stale"));
+        assertThat(demoRegistryService.getAuditor().takeActions(), contains(
+                "Refunding Inv3", "Refunding Inv3", "Refunding Inv3"));
+        assertThat(metaLockAspect.getNamedLocks().containsKey("Invoice§Inv3"), equalTo(false));
+    }
+
+    @Test
+    @Repeat(3)
+    public void transactionScopedInvoiceShouldBeReleasedAfterTheRollback() throws InterruptedException {
+        runConcurrent(50,
+                () -> transactionTemplate.execute(status -> {
+                    demoRegistryService.payInvoice("Inv2");
+                    demoRegistryService.getWorker().doSomeWork(200);
+                    demoRegistryService.getAuditor().logAction("Rolling back Inv2");
+                    status.setRollbackOnly();
+                    return null;
+                }),
+                () -> demoRegistryService.payInvoice("Inv2")
+        );
+
+        List<String> actions = demoRegistryService.getAuditor().takeActions();
+
+        assertThat(actions, contains(
+                "Paying Inv2",
+                "Paid Inv2",
+                "Rolling back Inv2",
+                "Paying Inv2",
+                "Paid Inv2"
+        ));
+        assertThat(metaLockAspect.getNamedLocks().containsKey("Invoice§Inv2"), equalTo(false));
+    }
+}
@@ -5,6 +5,8 @@ import io.github.xantorohara.metalock.app.DemoRegistryService;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,7 +14,12 @@ import org.springframework.test.annotation.Repeat;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.stream.Collectors;
 
 import static io.github.xantorohara.metalock.TestUtils.runConcurrent;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -26,6 +33,9 @@ public class NameLockAspectTest {
     @Autowired
     DemoRegistryService demoRegistryService;
 
+    @Autowired
+    NameLockAspect nameLockAspect;
+
     @Before
     public void before() {
         demoRegistryService.clearRecords();
@@ -94,4 +104,95 @@ public class NameLockAspectTest {
         assertThat(actions.get(4), isOneOf("Indexed Public", "Indexed Personal"));
         assertThat(actions.get(5), isOneOf("Indexed Public", "Indexed Personal"));
     }
-}
\ No newline at end of file
+
+    @Test
+    @Repeat(2)
+    public void concurrentCallersShouldNotOvershootTheWaitersLimit() throws InterruptedException {
+        Thread owner = new Thread(demoRegistryService::archiveDomain);
+        owner.start();
+        Thread.sleep(50);
+
+        Runnable[] callers = new Runnable[8];
+        CyclicBarrier barrier = new CyclicBarrier(callers.length);
+        Arrays.fill(callers, (Runnable) () -> {
+            try {
+                barrier.await();
+                demoRegistryService.archiveDomain();
+            } catch (LockRejectedException e) {
+                demoRegistryService.getAuditor().logAction("Rejected " + e.getLockName());
+            } catch (InterruptedException | BrokenBarrierException e) {
+                demoRegistryService.getAuditor().logAction("Broken " + e);
+            }
+        });
+        runConcurrent(0, callers);
+        owner.join();
+
+        List<String> actions = demoRegistryService.getAuditor().takeActions();
+
+        // Only one caller waits for the owner, all others are rejected
+        assertThat(actions.stream().filter("Rejected ArchiveDomain"::equals).count(), equalTo(7L));
+        assertThat(actions.stream().filter("Archived"::equals).count(), equalTo(2L));
+    }
+
+    @Test
+    public void duplicatedNamesShouldBeLockedOnce() throws Exception {
+        List<String> locking = lockingOf(demoRegistryService::auditDomains);
+
+        assertThat(locking, contains("Locking PersonalDomain", "Locking PublicDomain"));
+        assertThat(demoRegistryService.getAuditor().takeActions(), contains("Audit started", "Audit done"));
+        assertThat(nameLockAspect.getLockNames(DemoRegistryService.class.getMethod("auditDomains")),
+                arrayContaining("PersonalDomain", "PublicDomain"));
+    }
+
+    @Test
+    @Repeat(3)
+    public void namesShouldBeLockedInTheSameOrderWhateverTheAnnotationOrder() throws InterruptedException {
+        assertThat(lockingOf(demoRegistryService::backupDomains),
+                contains("Locking PersonalDomain", "Locking PublicDomain"));
+        assertThat(lockingOf(demoRegistryService::restoreDomains),
+                contains("Locking PersonalDomain", "Locking PublicDomain"));
+
+        // Reversed annotations would deadlock if the names were not sorted
+        runConcurrent(0,
+                demoRegistryService::backupDomains, demoRegistryService::restoreDomains,
+                demoRegistryService::backupDomains, demoRegistryService::restoreDomains
+        );
+
+        assertThat(demoRegistryService.getAuditor().takeActions().size(), equalTo(12));
+    }
+
+    @Test
+    public void resolvedNamesShouldBeReusedByNextInvocations() throws Exception {
+        Method method = DemoRegistryService.class.getMethod("indexPersonalDomain");
+
+        demoRegistryService.indexPersonalDomain();
+        String[] lockNames = nameLockAspect.getLockNames(method);
+        demoRegistryService.indexPersonalDomain();
+
+        assertThat(lockNames, arrayContaining("PersonalDomain"));
+        assertThat(nameLockAspect.getLockNames(method), sameInstance(lockNames));
+        assertThat(demoRegistryService.getAuditor().takeActions().size(), equalTo(4));
+    }
+
+    /**
+     * "Locking" messages of the default listener logged by the current thread while the task runs.
+     */
+    private static List<String> lockingOf(Runnable task) {
+        ch.qos.logback.classic.Logger logger =
+                (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(NameLockAspect.class);
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        logger.addAppender(appender);
+        try {
+            task.run();
+        } finally {
+            logger.detachAppender(appender);
+        }
+        String thread = Thread.currentThread().getName();
+        return appender.list.stream()
+                .filter(e -> e.getThreadName().equals(thread))
+                .map(e -> e.getFormattedMessage().replaceFirst("^NL\\d+U ", ""))
+                .filter(message -> message.startsWith("Locking "))
+                .collect(Collectors.toList());
+    }
+}
@@ -1,20 +1,51 @@
 package io.github.xantorohara.metalock.app;
 
 
+import io.github.xantorohara.metalock.LockNamespace;
+import io.github.xantorohara.metalock.LockTraceRecorder;
+import io.github.xantorohara.metalock.LockWatchdog;
 import io.github.xantorohara.metalock.MetaLockAspect;
 import io.github.xantorohara.metalock.NameLockAspect;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Properties;
 
 @Configuration
 @EnableAspectJAutoProxy
 @ComponentScan("io.github.xantorohara.metalock")
 public class DemoApplication {
     @Bean
-    public MetaLockAspect getMetaLockAspect() {
-        return new MetaLockAspect();
+    public LockTraceRecorder getLockTraceRecorder() {
+        return new LockTraceRecorder(1024);
+    }
+
+    @Bean
+    public MetaLockAspect getMetaLockAspect(LockTraceRecorder lockTraceRecorder) {
+        Properties properties = new Properties();
+        properties.setProperty("metalock.namespace.Seat.stripes", "4");
+        properties.setProperty("metalock.namespace.Seat.maxWaiters", "1");
+        properties.setProperty("metalock.namespace.Seat.evict", "false");
+
+        MetaLockAspect metaLockAspect = new MetaLockAspect(MetaLockAspect.defaultListener(), lockTraceRecorder);
+        metaLockAspect.setNamespaces(LockNamespace.fromProperties(properties));
+        return metaLockAspect;
+    }
+
+    @Bean
+    public LockWatchdog getLockWatchdog(MetaLockAspect metaLockAspect) {
+        LockWatchdog watchdog = new LockWatchdog(metaLockAspect);
+        watchdog.setPeriod(50);
+        watchdog.setThreshold("Slow", 100);
+        return watchdog;
+    }
+
+    @Bean
+    public TransactionTemplate getTransactionTemplate() {
+        return new TransactionTemplate(new DummyTransactionManager());
     }
 
     @Bean
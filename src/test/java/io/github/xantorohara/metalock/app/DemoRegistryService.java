@@ -1,14 +1,23 @@
 package io.github.xantorohara.metalock.app;
 
+import io.github.xantorohara.metalock.LockDispatch;
+import io.github.xantorohara.metalock.LockMode;
+import io.github.xantorohara.metalock.LockQueue;
+import io.github.xantorohara.metalock.LockScope;
 import io.github.xantorohara.metalock.MetaLock;
+import io.github.xantorohara.metalock.MetaLockAspect;
+import io.github.xantorohara.metalock.MetaLocks;
 import io.github.xantorohara.metalock.NameLock;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Service;
 
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This dummy service maintains some Registry.
@@ -23,18 +32,27 @@ public class DemoRegistryService {
 
     private static final String PUBLIC_DOMAIN = "PublicDomain";
     private static final String PERSONAL_DOMAIN = "PersonalDomain";
+    private static final String ARCHIVE_DOMAIN = "ArchiveDomain";
 
     private final Map<String, String> recordsDummyStorage = new ConcurrentHashMap<>();
+    private final Map<String, Integer> counters = new HashMap<>();
+    private final Map<String, String> jobs = new HashMap<>();
 
     @Autowired
     private DummyAuditor auditor;
     @Autowired
     private DummyWorker worker;
+    @Autowired
+    private MetaLockAspect metaLockAspect;
 
     public DummyAuditor getAuditor() {
         return auditor;
     }
 
+    public DummyWorker getWorker() {
+        return worker;
+    }
+
     public Map<String, String> getRecordsDummyStorage() {
         return recordsDummyStorage;
     }
@@ -88,6 +106,37 @@ public class DemoRegistryService {
         auditor.logAction("Backup done");
     }
 
+    /**
+     * Restore all domains, names are listed in the other order than in backupDomains,
+     * but they are sorted before locking, so these methods can't deadlock.
+     */
+    @NameLock({PERSONAL_DOMAIN, PUBLIC_DOMAIN})
+    public void restoreDomains() {
+        auditor.logAction("Restore started");
+        worker.doSomeWork(50);
+        auditor.logAction("Restore done");
+    }
+
+    /**
+     * Audit all domains, the duplicated name is locked once.
+     */
+    @NameLock({PUBLIC_DOMAIN, PERSONAL_DOMAIN, PUBLIC_DOMAIN})
+    public void auditDomains() {
+        auditor.logAction("Audit started");
+        auditor.logAction("Audit done");
+    }
+
+    /**
+     * Archive the Archive Domain.
+     * Archiving is expensive, so only one caller is allowed to wait for the lock.
+     */
+    @NameLock(value = ARCHIVE_DOMAIN, maxWaiters = 1)
+    public void archiveDomain() {
+        auditor.logAction("Archiving");
+        worker.doSomeWork(200);
+        auditor.logAction("Archived");
+    }
+
     /**
      * Save (insert or update) record in the Registry.
      *
@@ -108,11 +157,296 @@ public class DemoRegistryService {
         }
     }
 
+    /**
+     * Build a report for the Records.
+     * <p/>
+     * Report building is expensive, so only one caller is allowed to wait for the lock,
+     * all other callers are rejected immediately.
+     *
+     * @param reportName
+     */
+    @MetaLock(name = "Report", param = "reportName", maxWaiters = 1)
+    public void buildReport(String reportName) {
+        auditor.logAction("Building " + reportName);
+        worker.doSomeWork(200);
+        auditor.logAction("Built " + reportName);
+    }
+
+    /**
+     * Publish the report in the book, the report keeps the same limit of waiters as buildReport.
+     *
+     * @param bookName
+     * @param reportName
+     */
+    @MetaLocks({
+            @MetaLock(name = "Book", param = "bookName"),
+            @MetaLock(name = "Report", param = "reportName", maxWaiters = 1)
+    })
+    public void publishReport(String bookName, String reportName) {
+        auditor.logAction("Publishing " + reportName + " in " + bookName);
+    }
+
+    /**
+     * Book the seat, seats have their own namespace (see DemoApplication)
+     * which allows only one waiter and keeps free locks.
+     *
+     * @param seatId
+     */
+    @MetaLock(name = "Seat", param = "seatId")
+    public void bookSeat(String seatId) {
+        auditor.logAction("Booking " + seatId);
+        worker.doSomeWork(200);
+        auditor.logAction("Booked " + seatId);
+    }
+
+    /**
+     * Run some slow task that may get stuck.
+     * The LockWatchdog interrupts it when the lock is held too long.
+     *
+     * @param taskName
+     */
+    @MetaLock(name = "Slow", param = "taskName")
+    public void runSlowTask(String taskName) {
+        auditor.logAction("Running " + taskName);
+        worker.doSomeWork(10000);
+        auditor.logAction("Finished " + taskName);
+    }
+
+    /**
+     * Increment some counter in the Registry.
+     * It is a very short operation, so waiters spin before parking.
+     *
+     * @param counterName
+     * @return new value of the counter
+     */
+    @MetaLock(name = "Counter", param = "counterName", spin = true)
+    public int incrementCounter(String counterName) {
+        int value = counters.getOrDefault(counterName, 0) + 1;
+        counters.put(counterName, value);
+        return value;
+    }
+
+    /**
+     * Book a ticket from the queue.
+     * Customers with the earliest deadlines are served first,
+     * customers whose deadlines have already expired are dropped.
+     *
+     * @param queueName
+     * @param customer
+     * @param bookingTime
+     */
+    @MetaLock(name = "Ticket", param = "queueName", queue = LockQueue.DEADLINE)
+    public void bookTicket(String queueName, String customer, long bookingTime) {
+        auditor.logAction("Booking for " + customer);
+        worker.doSomeWork(bookingTime);
+        auditor.logAction("Booked for " + customer);
+    }
+
+    /**
+     * Book a ticket from the queue for the customer with the voucher.
+     * Only the ticket queue is ordered by deadlines.
+     *
+     * @param customer
+     * @param queueName
+     * @param voucherId
+     */
+    @MetaLocks({
+            @MetaLock(name = "Customer", param = "customer"),
+            @MetaLock(name = "Ticket", param = "queueName", queue = LockQueue.DEADLINE),
+            @MetaLock(name = "Voucher", param = "voucherId")
+    })
+    public void bookTicketWithVoucher(String customer, String queueName, String voucherId) {
+        auditor.logAction("Booking for " + customer + " with " + voucherId);
+    }
+
+    /**
+     * Audit the account.
+     *
+     * @param account
+     */
+    @MetaLock(name = "Account", param = "account")
+    public void auditAccount(String account) {
+        auditor.logAction("Auditing " + account);
+        worker.doSomeWork(200);
+        auditor.logAction("Audited " + account);
+    }
+
+    /**
+     * Transfer money between two accounts, both accounts are locked.
+     *
+     * @param fromAccount
+     * @param toAccount
+     */
+    @MetaLocks({
+            @MetaLock(name = "Account", param = "fromAccount"),
+            @MetaLock(name = "Account", param = "toAccount")
+    })
+    public void transferMoney(String fromAccount, String toAccount) {
+        auditor.logAction("Transfer " + fromAccount + " " + toAccount);
+        worker.doSomeWork(200);
+        auditor.logAction("Transferred " + fromAccount + " " + toAccount);
+    }
+
+    /**
+     * Import the row, rows are locked in the compact table.
+     *
+     * @param rowId
+     */
+    @MetaLock(name = "Row", param = "rowId", compact = true)
+    public void importRow(long rowId) {
+        auditor.logAction("Importing " + rowId);
+        worker.doSomeWork(200);
+        auditor.logAction("Imported " + rowId);
+    }
+
+    /**
+     * Update the row, it is locked in the locks storage, unlike importRow.
+     *
+     * @param rowId
+     */
+    @MetaLock(name = "Row", param = "rowId")
+    public void updateRow(long rowId) {
+        auditor.logAction("Updating " + rowId);
+    }
+
+    /**
+     * Send the message to the recipient in the background,
+     * messages to the same recipient are sent one by one.
+     *
+     * @param recipient
+     * @param message
+     */
+    @MetaLock(name = "Mail", param = "recipient", dispatch = LockDispatch.ASYNC)
+    public CompletableFuture<String> sendMail(String recipient, String message) {
+        auditor.logAction("Sending " + message + " to " + recipient);
+        worker.doSomeWork(100);
+        auditor.logAction("Sent " + message + " to " + recipient);
+        return CompletableFuture.completedFuture(message);
+    }
+
+    /**
+     * Fill the cell of the sheet and run some action (it may fill other cells).
+     * Cells of one thread are escalated to the whole "Cell" lock after 3 cells.
+     *
+     * @param cell
+     * @param action
+     */
+    @MetaLock(name = "Cell", param = "cell", escalateAfter = 3)
+    public void fillCell(String cell, Runnable action) {
+        auditor.logAction("Fill " + cell);
+        action.run();
+        auditor.logAction("Filled " + cell);
+    }
+
+    /**
+     * Fill two cells of the sheet at once (they may be the same) and run some action.
+     *
+     * @param cell1
+     * @param cell2
+     * @param action
+     */
+    @MetaLocks({
+            @MetaLock(name = "Cell", param = "cell1", escalateAfter = 3),
+            @MetaLock(name = "Cell", param = "cell2", escalateAfter = 3)
+    })
+    public void fillCells(String cell1, String cell2, Runnable action) {
+        auditor.logAction("Fill " + cell1 + " " + cell2);
+        action.run();
+        auditor.logAction("Filled " + cell1 + " " + cell2);
+    }
+
+    /**
+     * Wait until the job gets the state.
+     *
+     * @param jobId
+     * @param state
+     * @param timeout - timeout in milliseconds
+     * @return false if the timeout has elapsed
+     */
+    @MetaLock(name = "Job", param = "jobId")
+    public boolean awaitJob(String jobId, String state, long timeout) throws InterruptedException {
+        auditor.logAction("Awaiting " + jobId);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (!state.equals(jobs.get(jobId))) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            if (metaLockAspect.getCondition("Job", jobId).awaitNanos(remaining) <= 0) {
+                auditor.logAction("Timed out " + jobId);
+            }
+        }
+        auditor.logAction("Awaited " + jobId + " " + state);
+        return true;
+    }
+
+    /**
+     * Change the state of the job and wake up threads awaiting it.
+     *
+     * @param jobId
+     * @param state
+     */
+    @MetaLock(name = "Job", param = "jobId")
+    public void updateJob(String jobId, String state) {
+        jobs.put(jobId, state);
+        auditor.logAction("Updated " + jobId + " " + state);
+        metaLockAspect.getCondition("Job", jobId).signalAll();
+    }
+
+    /**
+     * Refund the invoice, transaction-scoped like payInvoice.
+     *
+     * @param invoiceId
+     */
+    @MetaLock(name = "Invoice", param = "invoiceId", scope = LockScope.TRANSACTION)
+    public void refundInvoice(String invoiceId) {
+        auditor.logAction("Refunding " + invoiceId);
+    }
+
+    /**
+     * Pay the invoice, if it is called inside the transaction the invoice stays locked until the commit.
+     *
+     * @param invoiceId
+     */
+    @MetaLock(name = "Invoice", param = "invoiceId", scope = LockScope.TRANSACTION)
+    public void payInvoice(String invoiceId) {
+        auditor.logAction("Paying " + invoiceId);
+        worker.doSomeWork(100);
+        auditor.logAction("Paid " + invoiceId);
+    }
+
+    /**
+     * Refresh the exchange rate, refreshes of the same currency rarely conflict, so they run without locks.
+     *
+     * @param currency
+     * @param source
+     * @param time
+     */
+    @MetaLock(name = "Rate", param = "currency", mode = LockMode.OPTIMISTIC, retries = 1)
+    public void refreshRate(String currency, String source, long time) {
+        auditor.logAction("Refreshing " + currency + " " + source);
+        worker.doSomeWork(time);
+        auditor.logAction("Refreshed " + currency + " " + source);
+    }
+
+    /**
+     * Set the exchange rate manually, it shares the name with refreshRate but not its mode,
+     * so it is rejected.
+     *
+     * @param currency
+     */
+    @MetaLock(name = "Rate", param = "currency")
+    public void setRate(String currency) {
+        auditor.logAction("Setting " + currency);
+    }
+
     /**
      * Remove all records from the Registry
      */
     public void clearRecords() {
         recordsDummyStorage.clear();
+        counters.clear();
+        jobs.clear();
     }
 
     /**
@@ -127,4 +461,19 @@ public class DemoRegistryService {
         worker.doSomeWork(200);
         auditor.logAction("Added " + amountOfMoney + " money for " + firstName + " " + lastName);
     }
+
+    /**
+     * Run some action for the user.
+     * The action may call other methods locked by the same user (nested locking).
+     *
+     * @param firstName
+     * @param lastName
+     * @param action
+     */
+    @MetaLock(name = "User", param = {"firstName", "lastName"})
+    public void doForUser(String firstName, String lastName, Runnable action) {
+        auditor.logAction("Start for " + firstName + " " + lastName);
+        action.run();
+        auditor.logAction("Done for " + firstName + " " + lastName);
+    }
 }
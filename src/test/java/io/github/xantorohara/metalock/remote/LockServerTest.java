@@ -0,0 +1,120 @@
+package io.github.xantorohara.metalock.remote;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class LockServerTest {
+    private LockServer server;
+    private InetSocketAddress address;
+
+    @Before
+    public void before() throws IOException {
+        server = new LockServer(0);
+        server.start();
+        address = server.getAddress();
+    }
+
+    @After
+    public void after() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void keyHeldByOneClientShouldWaitForItsRelease() throws Exception {
+        try (RemoteLockBackend first = new RemoteLockBackend(address);
+             RemoteLockBackend second = new RemoteLockBackend(address)) {
+            first.lock(new String[]{"A"});
+            first.lock(new String[]{"A"});
+
+            CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> second.lock(new String[]{"A"}));
+            assertWaiting(waiting);
+
+            first.unlock(new String[]{"A"});
+            assertWaiting(waiting);
+
+            first.unlock(new String[]{"A"});
+            waiting.get(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void batchShouldBeGrantedWhenAllKeysAreAcquired() throws Exception {
+        try (RemoteLockBackend first = new RemoteLockBackend(address);
+             RemoteLockBackend second = new RemoteLockBackend(address);
+             RemoteLockBackend third = new RemoteLockBackend(address)) {
+            first.lock(new String[]{"B"});
+
+            CompletableFuture<Void> batch = CompletableFuture.runAsync(() -> second.lock(new String[]{"A", "B", "C"}));
+            assertWaiting(batch);
+
+            CompletableFuture<Void> single = CompletableFuture.runAsync(() -> {
+                third.lock(new String[]{"C"});
+                third.unlock(new String[]{"C"});
+            });
+            single.get(1, TimeUnit.SECONDS);
+
+            first.unlock(new String[]{"B"});
+            batch.get(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void keysOfTheClosedClientShouldBeReleased() throws Exception {
+        try (RemoteLockBackend second = new RemoteLockBackend(address)) {
+            RemoteLockBackend first = new RemoteLockBackend(address);
+            first.lock(new String[]{"A", "B"});
+
+            CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> second.lock(new String[]{"B"}));
+            assertWaiting(waiting);
+
+            first.close();
+            waiting.get(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void keysOfTheSilentClientShouldBeReleasedAfterTheLease() throws Exception {
+        try (SocketChannel silent = SocketChannel.open(address);
+             RemoteLockBackend second = new RemoteLockBackend(address)) {
+            write(silent, LockProtocol.heartbeat(1, 300));
+            write(silent, LockProtocol.acquire(2, 1, new String[]{"A"}));
+
+            ByteBuffer granted = ByteBuffer.allocate(LockProtocol.granted(2).remaining());
+            while (granted.hasRemaining()) {
+                silent.read(granted);
+            }
+            assertThat(granted.get(LockProtocol.LENGTH_SIZE), equalTo(LockProtocol.GRANTED));
+
+            CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> second.lock(new String[]{"A"}));
+            assertWaiting(waiting);
+            waiting.get(1, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void write(SocketChannel channel, ByteBuffer frame) throws IOException {
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+    }
+
+    private static void assertWaiting(CompletableFuture<Void> future) throws Exception {
+        try {
+            future.get(100, TimeUnit.MILLISECONDS);
+            throw new AssertionError("Keys should not be acquired yet");
+        } catch (TimeoutException e) {
+            // still waiting
+        }
+    }
+}
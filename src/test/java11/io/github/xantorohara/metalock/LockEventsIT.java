@@ -0,0 +1,69 @@
+package io.github.xantorohara.metalock;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Runs against the multi-release jar on Java 11+ (see the java11 profile), so it tests the JFR layer of LockEvents.
+ */
+public class LockEventsIT {
+    private static final String WAIT = "io.github.xantorohara.metalock.MetaLockWait";
+    private static final String HOLD = "io.github.xantorohara.metalock.MetaLockHold";
+
+    @Test
+    public void eventsShouldNotBeCreatedWithoutRecording() {
+        Object waitEvent = LockEvents.beginWait();
+        Object holdEvent = LockEvents.beginHold();
+        assertThat(waitEvent, nullValue());
+        assertThat(holdEvent, nullValue());
+
+        LockEvents.endWait(waitEvent, "User§Paul", "saveUser()", LockEvents.ACQUIRED);
+        LockEvents.endHold(holdEvent, new String[]{"User§Paul"}, "saveUser()", LockEvents.COMPLETED);
+    }
+
+    @Test
+    public void waitAndHoldShouldBeRecorded() throws Exception {
+        Path file = Files.createTempFile("metalock", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(WAIT).withThreshold(Duration.ZERO);
+            recording.enable(HOLD).withThreshold(Duration.ZERO);
+            recording.start();
+
+            Object waitEvent = LockEvents.beginWait();
+            assertThat(waitEvent, notNullValue());
+            LockEvents.endWait(waitEvent, "User§Paul", "saveUser()", LockEvents.ACQUIRED);
+
+            Object holdEvent = LockEvents.beginHold();
+            LockEvents.endHold(holdEvent, new String[]{"Account§1", "User§Paul"}, "saveUser()",
+                    LockEvents.COMPLETED);
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                .filter(e -> e.getEventType().getName().startsWith("io.github.xantorohara.metalock"))
+                .collect(Collectors.toList());
+        Files.delete(file);
+
+        assertThat(events.stream().map(e -> e.getEventType().getName()).collect(Collectors.toList()),
+                contains(WAIT, HOLD));
+        assertThat(events.stream().map(e -> e.getString("name")).collect(Collectors.toList()),
+                contains("User", "Account,User"));
+        assertThat(events.stream().map(e -> e.getString("outcome")).collect(Collectors.toList()),
+                contains(LockEvents.ACQUIRED, LockEvents.COMPLETED));
+    }
+}